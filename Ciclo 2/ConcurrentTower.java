@@ -0,0 +1,471 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Torre que se puede usar desde varios hilos a la vez, sin interfaz gráfica.
+ *
+ * Las consultas nunca bloquean. Al terminar cada modificación, con el candado de escritura todavía
+ * tomado, se publica en un campo volátil una copia inmutable ({@link TowerSnapshot}) de la torre,
+ * que se actualiza con lo que cambió y comparte el resto con la copia anterior. lidedCups(),
+ * stackingItems(), snapshot(), las búsquedas de intercambios y el rechazo de operaciones de tapa
+ * leen esa copia sin tomar ningún candado, así que no esperan ni siquiera a orderTower() o
+ * reverseTower(); height() y modifications() leen valores publicados de la misma forma.
+ * Las modificaciones se aplican una a la vez con el candado de escritura, porque al anidarse
+ * las tazas la altura de cada una depende de todas las de abajo: poner o quitar una tapa
+ * mueve todas las tazas de encima, así que dos tapas en tazas distintas no son independientes.
+ * Lo que sí avanza en paralelo es el rechazo: una operación de tapa que no aplica (la taza no
+ * existe, ya tiene tapa o no la tiene) se resuelve con la copia publicada, sin esperar.
+ *
+ * Cada modificación devuelve su propio resultado, que no se mezcla con el de otros hilos;
+ * ok() y status() informan el resultado de la última operación del hilo que los consulta.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class ConcurrentTower {
+
+    private final Tower tower;
+    private final StampedLock lock;
+    private volatile int height;
+    private volatile long modifications;
+    private volatile TowerSnapshot published;
+    private final ThreadLocal<TowerStatus> lastStatus;
+
+    /**
+     * Constructor que crea una torre vacía con dimensiones específicas.
+     * @param width Ancho de la torre.
+     * @param maxHeight Altura máxima permitida.
+     */
+    public ConcurrentTower(int width, int maxHeight) {
+        this(new Tower(width, maxHeight));
+    }
+
+    /**
+     * Constructor que crea una torre con tazas iniciales.
+     * @param cups Cantidad de tazas.
+     */
+    public ConcurrentTower(int cups) {
+        this(new Tower(cups));
+    }
+
+    /**
+     * Constructor que envuelve una torre que ningún otro objeto conoce.
+     */
+    private ConcurrentTower(Tower tower) {
+        this.tower = tower;
+        this.lock = new StampedLock();
+        this.height = tower.height();
+        this.published = tower.snapshot(null);
+        this.lastStatus = ThreadLocal.withInitial(() -> TowerStatus.OK);
+    }
+
+    /**
+     * Agrega una taza a la torre.
+     * @param i Identificador de la taza.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus pushCup(int i) {
+        return write(t -> t.pushCup(i));
+    }
+
+    /**
+     * Elimina la taza que se encuentra en la cima de la torre.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus popCup() {
+        return write(Tower::popCup);
+    }
+
+    /**
+     * Elimina una taza específica de la torre según su identificador.
+     * @param i Identificador de la taza.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus removeCup(int i) {
+        return write(t -> t.removeCup(i));
+    }
+
+    /**
+     * Pone una tapa sobre una taza específica.
+     * Si la taza no existe o ya tiene tapa, falla sin esperar a las demás modificaciones.
+     * @param i Identificador de la taza.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus pushLid(int i) {
+        TowerStatus status = lidChange(i, false);
+        if (!status.isOk()) return status;
+        return write(t -> t.pushLid(i));
+    }
+
+    /**
+     * Elimina la tapa de la taza tapada más alta.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus popLid() {
+        return write(Tower::popLid);
+    }
+
+    /**
+     * Elimina la tapa de una taza específica.
+     * Si la taza no existe o no tiene tapa, falla sin esperar a las demás modificaciones.
+     * @param i Identificador de la taza.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus removeLid(int i) {
+        TowerStatus status = lidChange(i, true);
+        if (!status.isOk()) return status;
+        return write(t -> t.removeLid(i));
+    }
+
+    /**
+     * Intercambia la posición de dos tazas en la torre.
+     * @param o1 Arreglo que representa el primer objeto (ej: ["cup", "1"]).
+     * @param o2 Arreglo que representa el segundo objeto (ej: ["cup", "2"]).
+     * @return Resultado de la operación.
+     */
+    public TowerStatus swap(String[] o1, String[] o2) {
+        return write(t -> t.swap(o1, o2));
+    }
+
+    /**
+     * Intercambia la posición de dos tazas dadas por su identificador.
+     * @param id1 Identificador de la primera taza.
+     * @param id2 Identificador de la segunda taza.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus swap(int id1, int id2) {
+        return write(t -> t.swap(id1, id2));
+    }
+
+    /**
+     * Intenta poner tapas a todas las tazas de la torre que no tengan una.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus cover() {
+        return write(Tower::cover);
+    }
+
+    /**
+     * Ordena las tazas de la torre de forma descendente según su identificador.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus orderTower() {
+        return write(Tower::orderTower);
+    }
+
+    /**
+     * Invierte el orden actual de las tazas en la torre.
+     * @return Resultado de la operación.
+     */
+    public TowerStatus reverseTower() {
+        return write(Tower::reverseTower);
+    }
+
+    /**
+     * Busca un intercambio entre dos tazas que reduzca la altura de la torre.
+     * Busca sobre la copia publicada, con un motor de alturas propio, sin tomar ningún candado.
+     * No cambia el resultado de la última operación de este hilo.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] swapToReduce() {
+        return published.swapToReduce();
+    }
+
+    /**
+     * Busca el intercambio entre dos tazas que deja la torre más baja.
+     * Busca sobre la copia publicada, con un motor de alturas propio, sin tomar ningún candado.
+     * No cambia el resultado de la última operación de este hilo.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] bestSwapToReduce() {
+        return published.bestSwapToReduce();
+    }
+
+    /**
+     * Aplica varias operaciones seguidas sin que otro hilo modifique la torre entre ellas.
+     * Las operaciones reciben un {@link Batch}, no la torre: solo sirve dentro del grupo y desde
+     * este hilo, y ok() informa el resultado de cada operación.
+     * @param ops Operaciones a aplicar sobre la torre.
+     * @return El resultado de la última operación del grupo.
+     */
+    public TowerStatus batch(Consumer<Batch> ops) {
+        return write(t -> {
+            Batch batch = new Batch(t);
+            try {
+                t.batch(inner -> ops.accept(batch));
+            } finally {
+                batch.owner = null;
+            }
+            return t.status();
+        }, true);
+    }
+
+    /**
+     * Obtiene la altura de la torre después de la última modificación terminada. No bloquea.
+     * @return Altura total en unidades.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Obtiene los identificadores de las tazas tapadas después de la última modificación terminada. No bloquea.
+     * @return Arreglo de enteros con los IDs ordenados.
+     */
+    public int[] lidedCups() {
+        return published.lidedCups();
+    }
+
+    /**
+     * Copia en orden ascendente los identificadores de las tazas tapadas en un arreglo propio.
+     * @param into Arreglo destino; si es más corto, se llena con los primeros.
+     * @return Cantidad total de tazas tapadas.
+     */
+    public int lidedCups(int[] into) {
+        return published.lidedCups(into);
+    }
+
+    /**
+     * Copia los elementos apilados como pares de enteros (tipo e ID), como {@link Tower#stackingItems(int[])}.
+     * @param into Arreglo destino, de al menos el doble de la cantidad de elementos.
+     * @return Cantidad total de elementos de la torre.
+     */
+    public int stackingItems(int[] into) {
+        return published.stackingItems(into);
+    }
+
+    /**
+     * Retorna todos los elementos (tazas y tapas) en el orden en que están apilados. No bloquea.
+     * @return Arreglo bidimensional de Strings con el tipo y ID de cada elemento.
+     */
+    public String[][] stackingItems() {
+        return published.stackingItems();
+    }
+
+    /**
+     * Obtiene la copia inmutable de la torre que publicó la última modificación terminada. No bloquea
+     * ni copia nada: la copia ya está hecha.
+     * @return La copia de la torre.
+     */
+    public TowerSnapshot snapshot() {
+        return published;
+    }
+
+    /**
+     * Obtiene cuántas modificaciones han terminado con éxito; un lote cuenta como una. No bloquea.
+     * Si no cambió entre dos lecturas, la torre tampoco cambió.
+     * @return Cantidad de modificaciones.
+     */
+    public long modifications() {
+        return modifications;
+    }
+
+    /**
+     * Indica si la última operación realizada por este hilo fue exitosa.
+     * @return true si la operación se completó correctamente, false de lo contrario.
+     */
+    public boolean ok() {
+        return lastStatus.get().isOk();
+    }
+
+    /**
+     * Obtiene el resultado detallado de la última operación realizada por este hilo.
+     * @return Resultado de la última operación.
+     */
+    public TowerStatus status() {
+        return lastStatus.get();
+    }
+
+    /**
+     * Comprueba en la copia publicada si poner o quitar la tapa de una taza puede aplicar.
+     * Si no aplica, registra el fallo para este hilo.
+     * @param i Identificador de la taza.
+     * @param lidded true si la operación necesita que la taza tenga tapa (quitarla).
+     * @return El motivo por el que la operación seguro falla, u OK si hay que intentarla.
+     */
+    private TowerStatus lidChange(int i, boolean lidded) {
+        TowerSnapshot snapshot = published;
+        int p = snapshot.position(i);
+        TowerStatus status = p == -1 ? TowerStatus.CUP_NOT_FOUND
+            : snapshot.hasLid(p) == lidded ? TowerStatus.OK
+            : lidded ? TowerStatus.LID_MISSING : TowerStatus.LID_PRESENT;
+        if (!status.isOk()) lastStatus.set(status);
+        return status;
+    }
+
+    /**
+     * Aplica una modificación con el candado de escritura y publica la nueva altura y la nueva copia.
+     * Cuenta en modifications() solo si terminó con éxito.
+     * @return El resultado de la modificación, que también queda como resultado de este hilo.
+     */
+    private TowerStatus write(Function<Tower, TowerStatus> op) {
+        return write(op, false);
+    }
+
+    /**
+     * Aplica una modificación con el candado de escritura y publica la nueva altura y la nueva copia.
+     * La copia se publica antes de contar la modificación, así que quien vea el contador nuevo
+     * ve también la copia que lo incluye.
+     * @param always true para contarla en modifications() aunque falle, como un lote que pudo
+     * cambiar la torre antes de su última operación.
+     * @return El resultado de la modificación, que también queda como resultado de este hilo.
+     */
+    private TowerStatus write(Function<Tower, TowerStatus> op, boolean always) {
+        long stamp = lock.writeLock();
+        try {
+            TowerStatus status = op.apply(tower);
+            height = tower.height();
+            published = tower.snapshot(published);
+            if (always || status.isOk()) modifications++;
+            lastStatus.set(status);
+            return status;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Operaciones de un lote sobre la torre, que se aplican con el candado de escritura que tomó
+     * {@link ConcurrentTower#batch(Consumer)}. Al terminar el lote, o desde otro hilo, cualquier
+     * operación lanza IllegalStateException, así que guardar la referencia no sirve para
+     * modificar la torre sin el candado.
+     */
+    public static final class Batch {
+        private final Tower tower;
+        private Thread owner;
+
+        private Batch(Tower tower) {
+            this.tower = tower;
+            this.owner = Thread.currentThread();
+        }
+
+        /**
+         * Agrega una taza a la torre.
+         * @param i Identificador de la taza.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus pushCup(int i) {
+            return tower().pushCup(i);
+        }
+
+        /**
+         * Elimina la taza que se encuentra en la cima de la torre.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus popCup() {
+            return tower().popCup();
+        }
+
+        /**
+         * Elimina una taza específica de la torre según su identificador.
+         * @param i Identificador de la taza.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus removeCup(int i) {
+            return tower().removeCup(i);
+        }
+
+        /**
+         * Pone una tapa sobre una taza específica.
+         * @param i Identificador de la taza.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus pushLid(int i) {
+            return tower().pushLid(i);
+        }
+
+        /**
+         * Elimina la tapa de la taza tapada más alta.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus popLid() {
+            return tower().popLid();
+        }
+
+        /**
+         * Elimina la tapa de una taza específica.
+         * @param i Identificador de la taza.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus removeLid(int i) {
+            return tower().removeLid(i);
+        }
+
+        /**
+         * Intercambia la posición de dos tazas en la torre.
+         * @param o1 Arreglo que representa el primer objeto (ej: ["cup", "1"]).
+         * @param o2 Arreglo que representa el segundo objeto (ej: ["cup", "2"]).
+         * @return Resultado de la operación.
+         */
+        public TowerStatus swap(String[] o1, String[] o2) {
+            return tower().swap(o1, o2);
+        }
+
+        /**
+         * Intercambia la posición de dos tazas dadas por su identificador.
+         * @param id1 Identificador de la primera taza.
+         * @param id2 Identificador de la segunda taza.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus swap(int id1, int id2) {
+            return tower().swap(id1, id2);
+        }
+
+        /**
+         * Intenta poner tapas a todas las tazas de la torre que no tengan una.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus cover() {
+            return tower().cover();
+        }
+
+        /**
+         * Ordena las tazas de la torre de forma descendente según su identificador.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus orderTower() {
+            return tower().orderTower();
+        }
+
+        /**
+         * Invierte el orden actual de las tazas en la torre.
+         * @return Resultado de la operación.
+         */
+        public TowerStatus reverseTower() {
+            return tower().reverseTower();
+        }
+
+        /**
+         * Obtiene la altura de la torre con las operaciones del lote hechas hasta ahora.
+         * @return Altura total en unidades.
+         */
+        public int height() {
+            return tower().height();
+        }
+
+        /**
+         * Indica si la última operación del lote fue exitosa.
+         * @return true si la operación se completó correctamente, false de lo contrario.
+         */
+        public boolean ok() {
+            return tower().ok();
+        }
+
+        /**
+         * Obtiene el resultado detallado de la última operación del lote.
+         * @return Resultado de la última operación.
+         */
+        public TowerStatus status() {
+            return tower().status();
+        }
+
+        /**
+         * Entrega la torre solo al hilo que abrió el lote y mientras el lote no haya terminado.
+         */
+        private Tower tower() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalStateException("El lote solo se puede usar dentro de batch() y desde su hilo");
+            }
+            return tower;
+        }
+    }
+}
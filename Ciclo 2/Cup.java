@@ -1,6 +1,7 @@
 /**
  * Representa una taza individual que forma parte de la torre.
- * Puede cambiar su apariencia, posición y gestionar una tapa asociada.
+ * Guarda sus datos numéricos, su posición y la tapa asociada; las figuras del lienzo
+ * se crean en una CupView solo la primera vez que la taza se muestra.
  * * @author Sara Arteaga - Julián Tinjacá
  */
 public class Cup {
@@ -9,13 +10,10 @@ public class Cup {
     private int height;
     private int width;
     private String color;
-    private Rectangle leftWall;
-    private Rectangle rightWall;
-    private Rectangle bottom;
-    private Rectangle inside;
     private Lid lid;
     private int currentX = 0;
     private int currentY = 0;
+    private CupView view;
 
     /**
      * Constructor de la clase Cup.
@@ -29,14 +27,6 @@ public class Cup {
         this.height = height;
         this.width = width;
         this.color = color;
-        leftWall = new Rectangle();
-        rightWall = new Rectangle();
-        bottom = new Rectangle();
-        inside = new Rectangle();
-        leftWall.changeColor(color);
-        rightWall.changeColor(color);
-        bottom.changeColor(color);
-        inside.changeColor("white");
     }
 
     /**
@@ -79,6 +69,14 @@ public class Cup {
         return lid != null; 
     }
 
+    /**
+     * Obtiene la tapa asignada a la taza.
+     * @return La tapa, o null si no tiene.
+     */
+    public Lid getLid() {
+        return lid;
+    }
+
     /**
      * Calcula la altura total del bloque (taza + tapa si existe).
      * @return altura total en unidades.
@@ -88,42 +86,35 @@ public class Cup {
     }
 
     /**
-     * Define la posición de la taza y sus componentes en el lienzo.
-     * Ajusta automáticamente la ubicación de la taza si hay una tapa presente.
+     * Define la posición de la taza y su tapa en el lienzo.
+     * Si la taza ya fue mostrada, también mueve sus figuras.
      * @param x Coordenada horizontal base.
      * @param y Coordenada vertical base (techo del bloque).
      */
     public void setPosition(int x, int y) {
-        int hPx = height * Tower.SCALE;
-        int wPx = width * Tower.SCALE;
-        int wall = 8;
-        int floor = 5;
-    
-        int adjustX = 70;
-        int adjustY = 16;
-        
-        int finalX = x + adjustX;
-        int finalY = y + adjustY;
-    
-        int lidHeightPx = (lid != null) ? lid.getHeight() * Tower.SCALE : 0;
-        int cupTopY = finalY + lidHeightPx;
-    
-        leftWall.changeSize(hPx, wall);
-        rightWall.changeSize(hPx, wall);
-        bottom.changeSize(floor, wPx);
-        inside.changeSize(hPx - floor, wPx - (2 * wall));
-    
-        leftWall.changePosition(finalX, cupTopY);
-        rightWall.changePosition(finalX + wPx - wall, cupTopY);
-        bottom.changePosition(finalX, cupTopY + hPx - floor);
-        inside.changePosition(finalX + wall, cupTopY);
-    
-        if (lid != null) {
-            lid.setPosition(finalX, finalY); 
-        }
-    
         this.currentX = x;
         this.currentY = y;
+        if (view != null) {
+            view.place(this, x, y);
+        }
+    }
+
+    /**
+     * Indica si la taza ya está ubicada en unas coordenadas.
+     * @param x Coordenada horizontal base.
+     * @param y Coordenada vertical base (techo del bloque).
+     * @return true si esa es su posición actual.
+     */
+    public boolean isAt(int x, int y) {
+        return currentX == x && currentY == y;
+    }
+
+    /**
+     * Indica cuándo se redibujó la taza por última vez en el lienzo; la de mayor valor queda encima.
+     * @return Número de redibujo, o 0 si la taza nunca se ha mostrado.
+     */
+    public long drawnAt() {
+        return view == null ? 0 : view.drawnAt();
     }
 
     /**
@@ -132,10 +123,9 @@ public class Cup {
      */
     public void putLid(Lid lid) {
         this.lid = lid;
-        leftWall.changeColor("black");
-        rightWall.changeColor("black");
-        bottom.changeColor("black");
-        inside.changeColor("white"); 
+        if (view != null) {
+            view.paint(this);
+        }
     }
 
     /**
@@ -143,37 +133,29 @@ public class Cup {
      */
     public void removeLid() {
         if (lid != null) {
-            lid.hide();
             lid = null;
-
-            leftWall.changeColor(color);
-            rightWall.changeColor(color);
-            bottom.changeColor(color);
-            inside.changeColor("white");
+            if (view != null) {
+                view.paint(this);
+            }
         }
     }
 
     /**
      * Hace visibles todos los componentes de la taza y su tapa en el orden correcto.
+     * La primera vez crea la vista de la taza.
      */
     public void show() {
-        leftWall.makeVisible();    
-        rightWall.makeVisible();
-        bottom.makeVisible();
-        inside.makeVisible();     
-        if (lid != null) {
-            lid.show();
+        if (view == null) {
+            view = new CupView(this);
+            view.place(this, currentX, currentY);
         }
+        view.show(this);
     }   
 
     /**
      * Oculta todos los componentes de la taza y su tapa del lienzo.
      */
     public void hide() {
-        leftWall.makeInvisible();
-        rightWall.makeInvisible();
-        bottom.makeInvisible();
-        inside.makeInvisible();
-        if (lid != null) lid.hide();
+        if (view != null) view.hide();
     }
 }
\ No newline at end of file
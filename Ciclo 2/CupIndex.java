@@ -0,0 +1,168 @@
+import java.util.Arrays;
+
+/**
+ * Índice que relaciona el identificador de cada taza con su posición en la torre.
+ * Usa una tabla hash de direccionamiento abierto sobre arreglos de enteros primitivos,
+ * por lo que no crea objetos Integer al consultar o actualizar.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class CupIndex {
+
+    private static final int FREE = Integer.MIN_VALUE;
+    private int[] keys;
+    private int[] values;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+    private int size;
+
+    /**
+     * Constructor que crea un índice vacío.
+     */
+    public CupIndex() {
+        keys = new int[16];
+        values = new int[16];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * Obtiene la posición asociada a un identificador.
+     * @param id Identificador de la taza.
+     * @return Posición de la taza, o -1 si no está en el índice.
+     */
+    public int get(int id) {
+        if (id == FREE) return hasFreeKey ? freeKeyValue : -1;
+        int mask = keys.length - 1;
+        for (int slot = mix(id) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) return values[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Indica si el identificador está registrado en el índice.
+     * @param id Identificador de la taza.
+     * @return true si existe, false de lo contrario.
+     */
+    public boolean contains(int id) {
+        return get(id) != -1;
+    }
+
+    /**
+     * Registra o actualiza la posición de una taza.
+     * @param id Identificador de la taza.
+     * @param position Posición de la taza en la torre.
+     */
+    public void put(int id, int position) {
+        if (id == FREE) {
+            if (!hasFreeKey) size++;
+            hasFreeKey = true;
+            freeKeyValue = position;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(id) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == id) {
+                values[slot] = position;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        values[slot] = position;
+        size++;
+        if (size * 2 > keys.length) grow();
+    }
+
+    /**
+     * Elimina un identificador del índice.
+     * @param id Identificador de la taza a eliminar.
+     */
+    public void remove(int id) {
+        if (id == FREE) {
+            if (hasFreeKey) size--;
+            hasFreeKey = false;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(id) & mask;
+        while (keys[slot] != id) {
+            if (keys[slot] == FREE) return;
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        // Corrimiento hacia atrás: evita dejar marcas de borrado en la tabla.
+        int next = (slot + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = FREE;
+    }
+
+    /**
+     * Elimina todos los identificadores del índice.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Obtiene la cantidad de identificadores registrados.
+     * @return Número de tazas indexadas.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reserva espacio para una cantidad de identificadores, para cargar muchos sin reubicarlos.
+     * @param capacity Cantidad de identificadores que deben caber.
+     */
+    public void reserve(int capacity) {
+        int length = keys.length;
+        while (capacity * 2L > length) length *= 2;
+        if (length > keys.length) resize(length);
+    }
+
+    /**
+     * Duplica la capacidad de la tabla y reubica los identificadores existentes.
+     */
+    private void grow() {
+        resize(keys.length * 2);
+    }
+
+    /**
+     * Cambia el tamaño de la tabla, que debe ser potencia de dos, y reubica los identificadores.
+     */
+    private void resize(int length) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[length];
+        values = new int[length];
+        Arrays.fill(keys, FREE);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == FREE) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != FREE) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * Dispersa los bits del identificador para repartir mejor las tazas en la tabla.
+     */
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
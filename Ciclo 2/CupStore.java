@@ -0,0 +1,285 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Almacena las tazas de la torre, de abajo hacia arriba, en arreglos paralelos de primitivos:
+ * identificadores, alturas, anchos y banderas de tapa. Recorrer la torre lee memoria contigua
+ * en lugar de saltar entre objetos Cup. Además lleva el conjunto ordenado de las tazas tapadas,
+ * que se actualiza cada vez que una tapa cambia o se quita una taza tapada.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class CupStore {
+
+    private static final byte LID = 1;
+    private static final byte LID_IN_CUP_COLOR = 2;
+    private int count;
+    private int[] ids;
+    private int[] heights;
+    private int[] widths;
+    private byte[] flags;
+    private final LidSet lids;
+
+    /**
+     * Constructor que crea un almacén vacío.
+     */
+    public CupStore() {
+        ids = new int[16];
+        heights = new int[16];
+        widths = new int[16];
+        flags = new byte[16];
+        lids = new LidSet();
+    }
+
+    /**
+     * Obtiene la cantidad de tazas almacenadas.
+     * @return Número de tazas.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Agrega una taza sin tapa en la cima.
+     * @param id Identificador de la taza.
+     * @param height Altura de la taza en unidades.
+     * @param width Ancho de la taza en unidades.
+     */
+    public void add(int id, int height, int width) {
+        if (count == ids.length) grow();
+        ids[count] = id;
+        heights[count] = height;
+        widths[count] = width;
+        flags[count] = 0;
+        count++;
+    }
+
+    /**
+     * Inserta una taza sin tapa en una posición, subiendo las que estaban desde ahí.
+     * @param p Posición de la taza.
+     * @param id Identificador de la taza.
+     * @param height Altura de la taza en unidades.
+     * @param width Ancho de la taza en unidades.
+     */
+    public void insert(int p, int id, int height, int width) {
+        if (count == ids.length) grow();
+        int moved = count - p;
+        System.arraycopy(ids, p, ids, p + 1, moved);
+        System.arraycopy(heights, p, heights, p + 1, moved);
+        System.arraycopy(widths, p, widths, p + 1, moved);
+        System.arraycopy(flags, p, flags, p + 1, moved);
+        ids[p] = id;
+        heights[p] = height;
+        widths[p] = width;
+        flags[p] = 0;
+        count++;
+    }
+
+    /**
+     * Elimina la taza de la cima.
+     */
+    public void removeLast() {
+        count--;
+        if ((flags[count] & LID) != 0) lids.remove(ids[count]);
+    }
+
+    /**
+     * Elimina la taza de una posición, bajando las que tenía encima.
+     * @param p Posición de la taza.
+     */
+    public void remove(int p) {
+        if ((flags[p] & LID) != 0) lids.remove(ids[p]);
+        int moved = count - p - 1;
+        System.arraycopy(ids, p + 1, ids, p, moved);
+        System.arraycopy(heights, p + 1, heights, p, moved);
+        System.arraycopy(widths, p + 1, widths, p, moved);
+        System.arraycopy(flags, p + 1, flags, p, moved);
+        count--;
+    }
+
+    /**
+     * Intercambia dos tazas de posición.
+     * @param p Posición de la primera taza.
+     * @param q Posición de la segunda taza.
+     */
+    public void swap(int p, int q) {
+        int id = ids[p];
+        ids[p] = ids[q];
+        ids[q] = id;
+        int height = heights[p];
+        heights[p] = heights[q];
+        heights[q] = height;
+        int width = widths[p];
+        widths[p] = widths[q];
+        widths[q] = width;
+        byte flag = flags[p];
+        flags[p] = flags[q];
+        flags[q] = flag;
+    }
+
+    /**
+     * Invierte el orden de las tazas.
+     */
+    public void reverse() {
+        for (int p = 0, q = count - 1; p < q; p++, q--) {
+            swap(p, q);
+        }
+    }
+
+    /**
+     * Ordena las tazas de forma descendente según su identificador.
+     * Se ordenan claves que combinan identificador y posición, y luego se aplica la permutación.
+     */
+    public void sortByIdDescending() {
+        long[] keys = new long[count];
+        for (int p = 0; p < count; p++) {
+            keys[p] = ((long) ids[p] << 32) | p;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = (int) keys[count - 1 - k];
+        }
+        reorder(order);
+    }
+
+    /**
+     * Reordena las tazas: la taza que estaba en la posición order[k] pasa a la posición k.
+     * @param order Posición anterior de cada taza, de abajo hacia arriba.
+     */
+    public void reorder(int[] order) {
+        int[] newIds = new int[ids.length];
+        int[] newHeights = new int[heights.length];
+        int[] newWidths = new int[widths.length];
+        byte[] newFlags = new byte[flags.length];
+        for (int k = 0; k < count; k++) {
+            int from = order[k];
+            newIds[k] = ids[from];
+            newHeights[k] = heights[from];
+            newWidths[k] = widths[from];
+            newFlags[k] = flags[from];
+        }
+        ids = newIds;
+        heights = newHeights;
+        widths = newWidths;
+        flags = newFlags;
+    }
+
+    /**
+     * Obtiene el identificador de la taza de una posición.
+     * @param p Posición de la taza.
+     * @return Identificador.
+     */
+    public int id(int p) {
+        return ids[p];
+    }
+
+    /**
+     * Obtiene la altura propia de la taza de una posición, sin contar la tapa.
+     * @param p Posición de la taza.
+     * @return Altura en unidades.
+     */
+    public int cupHeight(int p) {
+        return heights[p];
+    }
+
+    /**
+     * Obtiene la altura del bloque de una posición (taza más tapa si tiene).
+     * @param p Posición de la taza.
+     * @return Altura en unidades.
+     */
+    public int blockHeight(int p) {
+        return heights[p] + ((flags[p] & LID) != 0 ? Lid.HEIGHT : 0);
+    }
+
+    /**
+     * Obtiene el ancho de la taza de una posición.
+     * @param p Posición de la taza.
+     * @return Ancho en unidades.
+     */
+    public int width(int p) {
+        return widths[p];
+    }
+
+    /**
+     * Indica si la taza de una posición tiene tapa.
+     * @param p Posición de la taza.
+     * @return true si tiene tapa.
+     */
+    public boolean hasLid(int p) {
+        return (flags[p] & LID) != 0;
+    }
+
+    /**
+     * Indica si la tapa de la taza de una posición tiene el color de la taza (tapas puestas por cover)
+     * en lugar de ser negra.
+     * @param p Posición de la taza.
+     * @return true si la tapa usa el color de la taza.
+     */
+    public boolean lidInCupColor(int p) {
+        return (flags[p] & LID_IN_CUP_COLOR) != 0;
+    }
+
+    /**
+     * Pone o quita la tapa de la taza de una posición.
+     * @param p Posición de la taza.
+     * @param lid true para poner la tapa, false para quitarla.
+     * @param inCupColor true si la tapa usa el color de la taza.
+     */
+    public void setLid(int p, boolean lid, boolean inCupColor) {
+        if (lid != ((flags[p] & LID) != 0)) {
+            if (lid) lids.add(ids[p]);
+            else lids.remove(ids[p]);
+        }
+        flags[p] = (byte) ((lid ? LID : 0) | (lid && inCupColor ? LID_IN_CUP_COLOR : 0));
+    }
+
+    /**
+     * Obtiene la cantidad de tazas tapadas.
+     * @return Número de tazas con tapa.
+     */
+    public int lidCount() {
+        return lids.size();
+    }
+
+    /**
+     * Copia los identificadores de las tazas tapadas en orden ascendente, sin ordenar ni crear objetos.
+     * @param into Arreglo destino; si es más corto, se llena con los primeros.
+     * @return Cantidad total de tazas tapadas.
+     */
+    public int lidedIds(int[] into) {
+        return lids.toArray(into);
+    }
+
+    /**
+     * Recorre los identificadores de las tazas tapadas en orden ascendente.
+     * @param action Acción que recibe cada identificador.
+     */
+    public void forEachLided(IntConsumer action) {
+        lids.forEach(action);
+    }
+
+    /**
+     * Reserva espacio para una cantidad de tazas, para cargar muchas sin duplicar los arreglos.
+     * @param capacity Cantidad de tazas que deben caber.
+     */
+    public void reserve(int capacity) {
+        if (capacity > ids.length) resize(capacity);
+    }
+
+    /**
+     * Duplica la capacidad de los arreglos.
+     */
+    private void grow() {
+        resize(ids.length * 2);
+    }
+
+    /**
+     * Cambia la capacidad de los arreglos conservando las tazas.
+     */
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+}
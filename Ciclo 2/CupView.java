@@ -0,0 +1,163 @@
+/**
+ * Representación gráfica de una taza y su tapa en el lienzo.
+ * Solo se crea cuando la torre se hace visible; mientras tanto la taza guarda únicamente datos numéricos.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class CupView {
+
+    private static final int WALL = 8;
+    private static final int FLOOR = 5;
+    private static final int ADJUST_X = 70;
+    private static final int ADJUST_Y = 16;
+    private static long redraws;
+    private Rectangle leftWall;
+    private Rectangle rightWall;
+    private Rectangle bottom;
+    private Rectangle inside;
+    private Rectangle lidShape;
+    private boolean placed;
+    private int placedX;
+    private int placedY;
+    private boolean placedLid;
+    private Rectangle[] figures;
+    private int next;
+    private int sized;
+    private long drawnAt;
+
+    /**
+     * Constructor que crea las figuras de la taza con los colores que le corresponden.
+     * @param cup Taza que se va a representar.
+     */
+    public CupView(Cup cup) {
+        leftWall = new Rectangle();
+        rightWall = new Rectangle();
+        bottom = new Rectangle();
+        inside = new Rectangle();
+        lidShape = new Rectangle();
+        figures = new Rectangle[]{leftWall, rightWall, bottom, inside, lidShape};
+        paint(cup);
+    }
+
+    /**
+     * Ubica las paredes, el fondo, el interior y la tapa de la taza en el lienzo.
+     * Cada cambio de tamaño o posición de un rectángulo visible redibuja todo el Canvas,
+     * así que si la taza ya estaba en ese lugar y con la misma tapa no se toca ninguna figura.
+     * @param cup Taza representada.
+     * @param x Coordenada horizontal base.
+     * @param y Coordenada vertical base (techo del bloque).
+     */
+    public void place(Cup cup, int x, int y) {
+        if (placed && placedX == x && placedY == y && placedLid == cup.hasLid()) {
+            return;
+        }
+        placed = true;
+        placedX = x;
+        placedY = y;
+        placedLid = cup.hasLid();
+        drawnAt = ++redraws;
+        next = 0;
+        draw(this::reshape, x, y, cup.getCupHeight(), cup.getWidth(), cup.hasLid(), null, null);
+    }
+
+    /**
+     * Entrega a un pintor las figuras de una taza, con la misma geometría que usa en el lienzo
+     * y en el orden en que se muestran: paredes, fondo, interior y, si la tiene, la tapa.
+     * @param painter Pintor que recibe los rectángulos.
+     * @param x Coordenada horizontal base.
+     * @param y Coordenada vertical base (techo del bloque).
+     * @param cupHeight Altura de la taza en unidades, sin la tapa.
+     * @param width Ancho de la taza y de su tapa en unidades.
+     * @param lid true si la taza tiene tapa.
+     * @param wallColor Color de las paredes y el fondo.
+     * @param lidColor Color de la tapa.
+     */
+    public static void draw(TowerPainter painter, int x, int y, int cupHeight, int width, boolean lid,
+                            String wallColor, String lidColor) {
+        int hPx = cupHeight * Tower.SCALE;
+        int wPx = width * Tower.SCALE;
+
+        int finalX = x + ADJUST_X;
+        int finalY = y + ADJUST_Y;
+
+        int lidHeightPx = lid ? Lid.HEIGHT * Tower.SCALE : 0;
+        int cupTopY = finalY + lidHeightPx;
+
+        painter.rectangle(finalX, cupTopY, WALL, hPx, wallColor);
+        painter.rectangle(finalX + wPx - WALL, cupTopY, WALL, hPx, wallColor);
+        painter.rectangle(finalX, cupTopY + hPx - FLOOR, wPx, FLOOR, wallColor);
+        painter.rectangle(finalX + WALL, cupTopY, wPx - (2 * WALL), hPx - FLOOR, "white");
+        if (lid) {
+            painter.rectangle(finalX, finalY, wPx, Lid.HEIGHT * Tower.SCALE, lidColor);
+        }
+    }
+
+    /**
+     * Aplica la siguiente figura que entrega draw() al rectángulo que le corresponde.
+     * El tamaño de cada figura depende solo de la taza, así que se fija la primera vez y después
+     * solo se mueve: cada cambio de una figura visible la borra y la vuelve a registrar en el Canvas.
+     */
+    private void reshape(int x, int y, int width, int height, String color) {
+        Rectangle figure = figures[next];
+        if (next >= sized) {
+            figure.changeSize(height, width);
+            sized = next + 1;
+        }
+        figure.changePosition(x, y);
+        next++;
+    }
+
+    /**
+     * Aplica los colores de la taza: negro si tiene tapa, su color original si no.
+     * Si la taza perdió la tapa, la figura de la tapa se retira del lienzo.
+     * @param cup Taza representada.
+     */
+    public void paint(Cup cup) {
+        drawnAt = ++redraws;
+        String wallColor = cup.hasLid() ? "black" : cup.getColor();
+        leftWall.changeColor(wallColor);
+        rightWall.changeColor(wallColor);
+        bottom.changeColor(wallColor);
+        inside.changeColor("white");
+        if (cup.hasLid()) {
+            lidShape.changeColor(cup.getLid().getColor());
+        } else {
+            lidShape.makeInvisible();
+        }
+    }
+
+    /**
+     * Hace visibles todas las figuras de la taza y su tapa en el orden correcto.
+     * @param cup Taza representada.
+     */
+    public void show(Cup cup) {
+        drawnAt = ++redraws;
+        leftWall.makeVisible();
+        rightWall.makeVisible();
+        bottom.makeVisible();
+        inside.makeVisible();
+        if (cup.hasLid()) {
+            lidShape.makeVisible();
+        }
+    }
+
+    /**
+     * Indica cuándo se redibujaron por última vez las figuras de la taza, en una cuenta común a
+     * todas las tazas. El Canvas pinta encima lo último que redibuja, así que entre dos tazas
+     * visibles queda encima la de mayor valor.
+     * @return Número de redibujo, mayor mientras más reciente.
+     */
+    public long drawnAt() {
+        return drawnAt;
+    }
+
+    /**
+     * Oculta todas las figuras de la taza y su tapa del lienzo.
+     */
+    public void hide() {
+        leftWall.makeInvisible();
+        rightWall.makeInvisible();
+        bottom.makeInvisible();
+        inside.makeInvisible();
+        lidShape.makeInvisible();
+    }
+}
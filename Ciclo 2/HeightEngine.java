@@ -0,0 +1,413 @@
+import java.util.Arrays;
+
+/**
+ * Calcula la altura real de una torre del problema Stacking Cups, donde una taza
+ * más pequeña se anida dentro de una más grande sin tapa y queda un centímetro por
+ * encima de su fondo, y una taza más grande (o cualquiera sobre una taza tapada)
+ * descansa sobre el borde de la anterior.
+ *
+ * La base de cada taza depende de la última taza destapada más grande que ella (L):
+ * queda en base(L) + 1 o encima de la cima más alta entre L y ella. Como las bases
+ * crecen estrictamente de abajo hacia arriba, basta con dos árboles de segmentos
+ * sobre las posiciones: uno con el tamaño de las tazas destapadas y otro con las cimas.
+ * Apilar o desapilar cuesta O(log n); un cambio en medio recalcula desde esa posición.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class HeightEngine {
+
+    private static final int NONE = Integer.MIN_VALUE;
+    private int capacity;
+    private int count;
+    private int[] sizes;
+    private int[] blocks;
+    private boolean[] covered;
+    private int[] bases;
+    private int[] openSizeTree;
+    private int[] topTree;
+
+    /**
+     * Constructor que crea un motor de alturas vacío.
+     */
+    public HeightEngine() {
+        allocate(16);
+    }
+
+    /**
+     * Crea una copia independiente de otro motor, con las mismas tazas ya ubicadas.
+     * @param other Motor a copiar.
+     */
+    public HeightEngine(HeightEngine other) {
+        capacity = other.capacity;
+        count = other.count;
+        sizes = other.sizes.clone();
+        blocks = other.blocks.clone();
+        covered = other.covered.clone();
+        bases = other.bases.clone();
+        openSizeTree = other.openSizeTree.clone();
+        topTree = other.topTree.clone();
+    }
+
+    /**
+     * Agrega una taza en la cima de la torre.
+     * @param size Tamaño de la taza, usado para decidir si se anida en otra.
+     * @param block Altura del bloque (taza más tapa si tiene).
+     * @param lid true si la taza tiene tapa.
+     */
+    public void push(int size, int block, boolean lid) {
+        if (count == capacity) grow();
+        int p = count++;
+        sizes[p] = size;
+        blocks[p] = block;
+        covered[p] = lid;
+        place(p);
+    }
+
+    /**
+     * Agrega una taza en la cima sin ubicarla todavía. Sirve para cargar muchas tazas
+     * de una vez y luego ubicarlas con una sola llamada a {@link #recompute(int)}.
+     * @param size Tamaño de la taza.
+     * @param block Altura del bloque (taza más tapa si tiene).
+     * @param lid true si la taza tiene tapa.
+     */
+    public void append(int size, int block, boolean lid) {
+        if (count == capacity) grow();
+        set(count++, size, block, lid);
+    }
+
+    /**
+     * Reserva espacio para una cantidad de tazas, para cargar muchas sin reconstruir los árboles.
+     * @param capacity Cantidad de tazas que deben caber.
+     */
+    public void reserve(int capacity) {
+        int target = this.capacity;
+        while (target < capacity) target *= 2;
+        if (target > this.capacity) resize(target);
+    }
+
+    /**
+     * Elimina la taza de la cima.
+     */
+    public void pop() {
+        if (count == 0) return;
+        count--;
+        update(openSizeTree, count, NONE);
+        update(topTree, count, NONE);
+    }
+
+    /**
+     * Elimina la taza de una posición y recalcula las tazas que estaban encima.
+     * @param p Posición de la taza a eliminar.
+     */
+    public void remove(int p) {
+        int moved = count - p - 1;
+        System.arraycopy(sizes, p + 1, sizes, p, moved);
+        System.arraycopy(blocks, p + 1, blocks, p, moved);
+        System.arraycopy(covered, p + 1, covered, p, moved);
+        pop();
+        recompute(p);
+    }
+
+    /**
+     * Inserta una taza en una posición y recalcula desde ahí hasta la cima.
+     * @param p Posición de la taza.
+     * @param size Tamaño de la taza.
+     * @param block Altura del bloque (taza más tapa si tiene).
+     * @param lid true si la taza tiene tapa.
+     */
+    public void insert(int p, int size, int block, boolean lid) {
+        if (count == capacity) grow();
+        int moved = count - p;
+        System.arraycopy(sizes, p, sizes, p + 1, moved);
+        System.arraycopy(blocks, p, blocks, p + 1, moved);
+        System.arraycopy(covered, p, covered, p + 1, moved);
+        count++;
+        set(p, size, block, lid);
+        recompute(p);
+    }
+
+    /**
+     * Cambia los datos de la taza en una posición sin recalcular las tazas superiores.
+     * Debe seguirse de {@link #recompute(int)} desde la posición más baja modificada.
+     * @param p Posición de la taza.
+     * @param size Tamaño de la taza.
+     * @param block Altura del bloque (taza más tapa si tiene).
+     * @param lid true si la taza tiene tapa.
+     */
+    public void set(int p, int size, int block, boolean lid) {
+        sizes[p] = size;
+        blocks[p] = block;
+        covered[p] = lid;
+    }
+
+    /**
+     * Recalcula la base y la cima de las tazas desde una posición hasta la cima.
+     * Si cambian pocas tazas se ubican una por una en O(log n) cada una; si cambia una parte
+     * grande de la torre se hace un solo recorrido lineal y se reconstruyen los árboles.
+     * @param from Posición más baja que cambió.
+     */
+    public void recompute(int from) {
+        from = Math.max(from, 0);
+        if ((count - from) > (count >>> 4) + 64) {
+            recomputeLinear(from);
+            return;
+        }
+        for (int p = from; p < count; p++) {
+            place(p);
+        }
+    }
+
+    /**
+     * Elimina todas las tazas del motor.
+     */
+    public void clear() {
+        count = 0;
+        Arrays.fill(openSizeTree, NONE);
+        Arrays.fill(topTree, NONE);
+    }
+
+    /**
+     * Obtiene la altura real de la torre: la cima más alta entre todas las tazas.
+     * @return Altura en unidades.
+     */
+    public int height() {
+        return Math.max(0, topTree[1]);
+    }
+
+    /**
+     * Calcula la altura que tendría la torre si se apilara una taza nueva, sin agregarla.
+     * @param size Tamaño de la taza.
+     * @param block Altura del bloque.
+     * @return Altura resultante en unidades.
+     */
+    public int heightIfPushed(int size, int block) {
+        return Math.max(height(), baseFor(count, size) + block);
+    }
+
+    /**
+     * Calcula la altura desde cero con la pila monótona, en O(n), sobre una copia del motor.
+     * Sirve para verificar que la altura que se mantiene al apilar y mover tazas no se desincronizó.
+     * @return Altura en unidades según el recálculo completo.
+     */
+    public int linearHeight() {
+        HeightEngine copy = new HeightEngine(this);
+        copy.recomputeLinear(0);
+        return copy.height();
+    }
+
+    /**
+     * Obtiene la cima más alta entre las tazas que están por debajo de una posición.
+     * Ningún intercambio a partir de esa posición puede dejar la torre más baja que este valor.
+     * @param p Posición de referencia.
+     * @return Cima más alta en [0, p), o 0 si no hay tazas debajo.
+     */
+    public int maxTopBelow(int p) {
+        return Math.max(0, maxTop(0, p));
+    }
+
+    /**
+     * Calcula la altura que tendría la torre si se intercambiaran dos posiciones, sin dejar el cambio aplicado.
+     * Las tazas por debajo de i conservan su lugar, así que solo se simula desde i, y la simulación
+     * se corta en cuanto la altura alcanza el límite.
+     * @param i Posición más baja del intercambio.
+     * @param j Posición más alta del intercambio.
+     * @param limit Altura a partir de la cual el resultado ya no interesa.
+     * @return La altura exacta si es menor que limit, o un valor mayor o igual a limit.
+     */
+    public int heightWithSwap(int i, int j, int limit) {
+        int reached = maxTopBelow(i);
+        if (reached >= limit) return reached;
+        exchange(i, j);
+        int p = i;
+        while (p < count && reached < limit) {
+            place(p);
+            reached = Math.max(reached, bases[p] + blocks[p]);
+            p++;
+        }
+        exchange(i, j);
+        for (int q = i; q < p; q++) {
+            place(q);
+        }
+        return reached;
+    }
+
+    /**
+     * Obtiene la altura a la que queda el fondo de una taza.
+     * @param p Posición de la taza.
+     * @return Base en unidades desde el suelo.
+     */
+    public int base(int p) {
+        return bases[p];
+    }
+
+    /**
+     * Obtiene la altura a la que queda el borde superior (o la tapa) de una taza.
+     * @param p Posición de la taza.
+     * @return Cima en unidades desde el suelo.
+     */
+    public int top(int p) {
+        return bases[p] + blocks[p];
+    }
+
+    /**
+     * Obtiene la cantidad de tazas en el motor.
+     * @return Número de tazas.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Recalcula las bases con una pila monótona de tazas destapadas, de tamaño decreciente hacia la cima.
+     * Cada entrada de la pila guarda la cima más alta de las tazas que quedaron entre ella y la siguiente,
+     * así que la base de cada taza sale de lo que se desapila más lo que queda en el tope.
+     * @param from Primera posición cuya base se recalcula; las anteriores solo alimentan la pila.
+     */
+    private void recomputeLinear(int from) {
+        int[] stack = new int[count];
+        int[] between = new int[count];
+        int depth = 0;
+        int floor = NONE;
+        for (int p = 0; p < count; p++) {
+            int reached = NONE;
+            while (depth > 0 && sizes[stack[depth - 1]] <= sizes[p]) {
+                depth--;
+                reached = Math.max(reached, Math.max(top(stack[depth]), between[depth]));
+            }
+            if (depth > 0) {
+                between[depth - 1] = Math.max(between[depth - 1], reached);
+            } else {
+                floor = Math.max(floor, reached);
+            }
+            if (p >= from) {
+                int below = depth > 0 ? Math.max(bases[stack[depth - 1]] + 1, between[depth - 1]) : floor;
+                bases[p] = Math.max(0, below);
+            }
+            if (!covered[p]) {
+                stack[depth] = p;
+                between[depth] = NONE;
+                depth++;
+            } else if (depth > 0) {
+                between[depth - 1] = Math.max(between[depth - 1], top(p));
+            } else {
+                floor = Math.max(floor, top(p));
+            }
+        }
+        for (int p = 0; p < count; p++) {
+            openSizeTree[p + capacity] = covered[p] ? NONE : sizes[p];
+            topTree[p + capacity] = top(p);
+        }
+        rebuildTrees();
+    }
+
+    /**
+     * Recalcula los nodos internos de ambos árboles a partir de sus hojas.
+     */
+    private void rebuildTrees() {
+        for (int node = capacity - 1; node > 0; node--) {
+            openSizeTree[node] = Math.max(openSizeTree[2 * node], openSizeTree[2 * node + 1]);
+            topTree[node] = Math.max(topTree[2 * node], topTree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Intercambia los datos de dos posiciones sin recalcular.
+     */
+    private void exchange(int i, int j) {
+        int size = sizes[i];
+        int block = blocks[i];
+        boolean lid = covered[i];
+        set(i, sizes[j], blocks[j], covered[j]);
+        set(j, size, block, lid);
+    }
+
+    /**
+     * Ubica la taza de una posición a partir de las tazas que tiene debajo.
+     */
+    private void place(int p) {
+        bases[p] = baseFor(p, sizes[p]);
+        update(openSizeTree, p, covered[p] ? NONE : sizes[p]);
+        update(topTree, p, bases[p] + blocks[p]);
+    }
+
+    /**
+     * Calcula la base de una taza de cierto tamaño ubicada en la posición p.
+     */
+    private int baseFor(int p, int size) {
+        int larger = lastLarger(p, size);
+        int base = larger >= 0 ? bases[larger] + 1 : 0;
+        return Math.max(base, maxTop(larger + 1, p));
+    }
+
+    /**
+     * Busca la última posición antes de p con una taza destapada más grande que size.
+     * @return La posición encontrada, o -1 si no hay ninguna.
+     */
+    private int lastLarger(int p, int size) {
+        return lastLarger(1, 0, capacity, p, size);
+    }
+
+    private int lastLarger(int node, int lo, int hi, int p, int size) {
+        if (lo >= p || openSizeTree[node] <= size) return -1;
+        if (hi - lo == 1) return lo;
+        int mid = (lo + hi) >>> 1;
+        int found = lastLarger(2 * node + 1, mid, hi, p, size);
+        return found != -1 ? found : lastLarger(2 * node, lo, mid, p, size);
+    }
+
+    /**
+     * Obtiene la cima más alta entre las posiciones [from, to).
+     */
+    private int maxTop(int from, int to) {
+        int best = NONE;
+        for (int l = from + capacity, r = to + capacity; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) best = Math.max(best, topTree[l++]);
+            if ((r & 1) == 1) best = Math.max(best, topTree[--r]);
+        }
+        return best;
+    }
+
+    /**
+     * Cambia el valor de una hoja y actualiza los máximos de sus ancestros.
+     */
+    private void update(int[] tree, int p, int value) {
+        int node = p + capacity;
+        tree[node] = value;
+        for (node >>= 1; node > 0; node >>= 1) {
+            tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Reserva los arreglos para una capacidad dada.
+     */
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        sizes = Arrays.copyOf(sizes == null ? new int[0] : sizes, newCapacity);
+        blocks = Arrays.copyOf(blocks == null ? new int[0] : blocks, newCapacity);
+        covered = Arrays.copyOf(covered == null ? new boolean[0] : covered, newCapacity);
+        bases = Arrays.copyOf(bases == null ? new int[0] : bases, newCapacity);
+        openSizeTree = new int[2 * newCapacity];
+        topTree = new int[2 * newCapacity];
+        Arrays.fill(openSizeTree, NONE);
+        Arrays.fill(topTree, NONE);
+    }
+
+    /**
+     * Duplica la capacidad y reconstruye los árboles con las tazas existentes.
+     */
+    private void grow() {
+        resize(capacity * 2);
+    }
+
+    /**
+     * Cambia la capacidad, que debe ser potencia de dos, y reconstruye los árboles.
+     */
+    private void resize(int newCapacity) {
+        allocate(newCapacity);
+        for (int p = 0; p < count; p++) {
+            openSizeTree[p + capacity] = covered[p] ? NONE : sizes[p];
+            topTree[p + capacity] = bases[p] + blocks[p];
+        }
+        rebuildTrees();
+    }
+}
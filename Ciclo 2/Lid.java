@@ -1,15 +1,14 @@
 /**
  * Representa la tapa de una taza en la torre.
- * Se encarga de gestionar su propia forma, color y ubicación en el lienzo.
+ * Solo guarda sus datos; la figura en el lienzo la dibuja la vista de la taza que la lleva.
  * * @author Sara Arteaga - Julián Tinjacá
  */
 public class Lid {
 
     public static final int HEIGHT = 1;
-    private Rectangle shape;
-    private int currentX = 0;
-    private int currentY = 0;
     private int id;
+    private int width;
+    private String color;
 
     /**
      * Constructor de la clase Lid.
@@ -19,9 +18,8 @@ public class Lid {
      */
     public Lid(int id, int width, String color) {
         this.id = id; 
-        shape = new Rectangle();
-        shape.changeSize(HEIGHT * Tower.SCALE, width * Tower.SCALE);
-        shape.changeColor(color);
+        this.width = width;
+        this.color = color;
     }
 
     /**
@@ -32,17 +30,6 @@ public class Lid {
         return HEIGHT;
     }
 
-    /**
-     * Define la posición física de la tapa en el lienzo.
-     * @param x Coordenada horizontal.
-     * @param y Coordenada vertical.
-     */
-    public void setPosition(int x, int y) {
-        shape.changePosition(x, y);
-        currentX = x;
-        currentY = y;
-    }
-
     /**
      * Obtiene el identificador de la tapa.
      * @return id de la tapa.
@@ -52,16 +39,18 @@ public class Lid {
     }
 
     /**
-     * Hace visible la representación gráfica de la tapa en el lienzo.
+     * Obtiene el ancho de la tapa.
+     * @return ancho en unidades.
      */
-    public void show() {
-        shape.makeVisible();
+    public int getWidth() {
+        return width;
     }
 
     /**
-     * Oculta la representación gráfica de la tapa del lienzo.
+     * Obtiene el color de la tapa.
+     * @return nombre del color.
      */
-    public void hide() {
-        shape.makeInvisible();
+    public String getColor() {
+        return color;
     }
 }
\ No newline at end of file
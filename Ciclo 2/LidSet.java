@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto ordenado de identificadores de tazas tapadas, mantenido a medida que se ponen y
+ * quitan tapas para que listar las tazas tapadas no tenga que ordenar.
+ *
+ * Es un mapa de bits por páginas de 4096 identificadores que se crean solo cuando hacen falta,
+ * bajo un directorio de dos niveles que cubre todo el rango de int. Agregar, quitar y consultar
+ * cuestan O(1); recorrer en orden salta las páginas vacías. Los identificadores se guardan con
+ * el bit de signo invertido, para que el orden de las páginas coincida con el de los enteros.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class LidSet {
+
+    private static final int PAGE_BITS = 12;
+    private static final int DIRECTORY_BITS = 10;
+    private static final int DIRECTORY_SIZE = 1 << DIRECTORY_BITS;
+    private static final int WORDS = 1 << (PAGE_BITS - 6);
+    private final long[][][] directory;
+    private int size;
+
+    /**
+     * Constructor que crea un conjunto vacío.
+     */
+    public LidSet() {
+        directory = new long[DIRECTORY_SIZE][][];
+    }
+
+    /**
+     * Agrega un identificador.
+     * @param id Identificador de la taza.
+     * @return true si no estaba.
+     */
+    public boolean add(int id) {
+        int key = id ^ Integer.MIN_VALUE;
+        long[][] pages = directory[key >>> (PAGE_BITS + DIRECTORY_BITS)];
+        if (pages == null) {
+            pages = new long[DIRECTORY_SIZE][];
+            directory[key >>> (PAGE_BITS + DIRECTORY_BITS)] = pages;
+        }
+        long[] page = pages[(key >>> PAGE_BITS) & (DIRECTORY_SIZE - 1)];
+        if (page == null) {
+            page = new long[WORDS];
+            pages[(key >>> PAGE_BITS) & (DIRECTORY_SIZE - 1)] = page;
+        }
+        int word = (key >>> 6) & (WORDS - 1);
+        long bit = 1L << key;
+        if ((page[word] & bit) != 0) return false;
+        page[word] |= bit;
+        size++;
+        return true;
+    }
+
+    /**
+     * Quita un identificador.
+     * @param id Identificador de la taza.
+     * @return true si estaba.
+     */
+    public boolean remove(int id) {
+        int key = id ^ Integer.MIN_VALUE;
+        long[] page = page(key);
+        if (page == null) return false;
+        int word = (key >>> 6) & (WORDS - 1);
+        long bit = 1L << key;
+        if ((page[word] & bit) == 0) return false;
+        page[word] &= ~bit;
+        size--;
+        return true;
+    }
+
+    /**
+     * Indica si un identificador está en el conjunto.
+     * @param id Identificador de la taza.
+     * @return true si está.
+     */
+    public boolean contains(int id) {
+        int key = id ^ Integer.MIN_VALUE;
+        long[] page = page(key);
+        return page != null && (page[(key >>> 6) & (WORDS - 1)] & (1L << key)) != 0;
+    }
+
+    /**
+     * Obtiene la cantidad de identificadores.
+     * @return Número de tazas tapadas.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Quita todos los identificadores.
+     */
+    public void clear() {
+        Arrays.fill(directory, null);
+        size = 0;
+    }
+
+    /**
+     * Copia los identificadores en orden ascendente, sin crear objetos.
+     * Si el arreglo es más corto que el conjunto, se llena con los primeros.
+     * @param into Arreglo destino.
+     * @return Cantidad total de identificadores del conjunto.
+     */
+    public int toArray(int[] into) {
+        int count = 0;
+        for (int top = 0; top < DIRECTORY_SIZE && count < into.length && count < size; top++) {
+            long[][] pages = directory[top];
+            if (pages == null) continue;
+            for (int mid = 0; mid < DIRECTORY_SIZE && count < into.length; mid++) {
+                long[] page = pages[mid];
+                if (page == null) continue;
+                int base = ((top << DIRECTORY_BITS | mid) << PAGE_BITS) ^ Integer.MIN_VALUE;
+                for (int w = 0; w < WORDS && count < into.length; w++) {
+                    for (long bits = page[w]; bits != 0 && count < into.length; bits &= bits - 1) {
+                        into[count++] = base + (w << 6) + Long.numberOfTrailingZeros(bits);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Recorre los identificadores en orden ascendente.
+     * @param action Acción que recibe cada identificador.
+     */
+    public void forEach(IntConsumer action) {
+        int visited = 0;
+        for (int top = 0; top < DIRECTORY_SIZE && visited < size; top++) {
+            long[][] pages = directory[top];
+            if (pages == null) continue;
+            for (int mid = 0; mid < DIRECTORY_SIZE; mid++) {
+                long[] page = pages[mid];
+                if (page == null) continue;
+                int base = ((top << DIRECTORY_BITS | mid) << PAGE_BITS) ^ Integer.MIN_VALUE;
+                for (int w = 0; w < WORDS; w++) {
+                    for (long bits = page[w]; bits != 0; bits &= bits - 1) {
+                        action.accept(base + (w << 6) + Long.numberOfTrailingZeros(bits));
+                        visited++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtiene la página de una clave, o null si no se ha creado.
+     */
+    private long[] page(int key) {
+        long[][] pages = directory[key >>> (PAGE_BITS + DIRECTORY_BITS)];
+        return pages == null ? null : pages[(key >>> PAGE_BITS) & (DIRECTORY_SIZE - 1)];
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Recibe, en orden de apilamiento, cada elemento de una torre recorrida con
+ * {@link Tower#forEachItem(StackingVisitor)}, sin crear arreglos ni textos por elemento.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+@FunctionalInterface
+public interface StackingVisitor {
+
+    /**
+     * Visita un elemento de la torre.
+     * @param kind {@link Tower#CUP_ITEM} para una taza o {@link Tower#LID_ITEM} para su tapa.
+     * @param id Identificador de la taza (o de la taza que tapa).
+     */
+    void visit(int kind, int id);
+}
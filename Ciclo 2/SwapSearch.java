@@ -0,0 +1,162 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Busca en paralelo un intercambio de dos tazas que baje la torre, repartiendo las filas i
+ * de los pares (i, j) entre las tareas de un ForkJoinPool.
+ *
+ * Cada tarea evalúa sus pares sobre su propia copia del motor de alturas, así que la torre no
+ * se modifica ni siquiera de forma temporal. El resultado es el mismo que el de la búsqueda
+ * secuencial: el primer par que reduce la altura, o el de menor altura con el primer par en
+ * orden de posiciones como desempate. Las tareas comparten solo un entero atómico para podar:
+ * en la búsqueda del primero, la fila más baja con reducción ya encontrada; en la del mejor,
+ * la menor altura encontrada, que se usa con un margen de uno para no perder empates anteriores.
+ * La búsqueda secuencial, que usan Tower y TowerSnapshot, recorre los mismos pares en un solo hilo.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class SwapSearch {
+
+    private static final int TASKS_PER_THREAD = 16;
+
+    private SwapSearch() {
+    }
+
+    /**
+     * Busca en un solo hilo un intercambio que reduzca la altura de las tazas de un motor ya ubicado.
+     * Las tazas por debajo de la primera posición no cambian, así que cuando su cima ya alcanza
+     * la mejor altura conocida no hace falta seguir buscando. El motor prueba cada intercambio y
+     * lo deshace, así que no se puede usar desde otro hilo mientras tanto.
+     * @param engine Motor de alturas de la torre.
+     * @param best true para buscar el mejor intercambio, false para el primero que reduzca.
+     * @return Las posiciones {i, j} del intercambio, con i &lt; j, o null si ninguno reduce la altura.
+     */
+    public static int[] find(HeightEngine engine, boolean best) {
+        int limit = engine.height();
+        int bestI = -1;
+        int bestJ = -1;
+        for (int i = 0; i < engine.size() && engine.maxTopBelow(i) < limit; i++) {
+            for (int j = i + 1; j < engine.size(); j++) {
+                int newHeight = engine.heightWithSwap(i, j, limit);
+                if (newHeight < limit) {
+                    bestI = i;
+                    bestJ = j;
+                    limit = newHeight;
+                    if (!best) break;
+                }
+            }
+            if (!best && bestI != -1) break;
+        }
+        return bestI == -1 ? null : new int[]{bestI, bestJ};
+    }
+
+    /**
+     * Busca en paralelo un intercambio que reduzca la altura de las tazas de un motor ya ubicado.
+     * El motor solo se lee mientras dura la búsqueda.
+     * @param engine Motor de alturas de la torre.
+     * @param best true para buscar el mejor intercambio, false para el primero que reduzca.
+     * @param pool Grupo de hilos donde se reparte la búsqueda.
+     * @return Las posiciones {i, j} del intercambio, con i &lt; j, o null si ninguno reduce la altura.
+     */
+    public static int[] find(HeightEngine engine, boolean best, ForkJoinPool pool) {
+        int n = engine.size();
+        if (n < 2) return null;
+        int grain = Math.max(1, n / (pool.getParallelism() * TASKS_PER_THREAD));
+        int height = engine.height();
+        AtomicInteger bound = new AtomicInteger(best ? height : Integer.MAX_VALUE);
+        int[] found = pool.invoke(new Rows(engine, best, height, bound, 0, n - 1, grain));
+        return found == null ? null : new int[]{found[0], found[1]};
+    }
+
+    /**
+     * Tarea que evalúa los pares cuya primera posición está en [from, to).
+     * Devuelve {i, j, altura} del mejor par encontrado en su rango, o null.
+     */
+    private static final class Rows extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+        private final HeightEngine source;
+        private final boolean best;
+        private final int height;
+        private final AtomicInteger bound;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Rows(HeightEngine source, boolean best, int height, AtomicInteger bound, int from, int to, int grain) {
+            this.source = source;
+            this.best = best;
+            this.height = height;
+            this.bound = bound;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                Rows upper = new Rows(source, best, height, bound, mid, to, grain);
+                upper.fork();
+                int[] lower = new Rows(source, best, height, bound, from, mid, grain).compute();
+                return better(lower, upper.join());
+            }
+            return best ? scanBest() : scanFirst();
+        }
+
+        /**
+         * Busca el primer par del rango que reduce la altura, sin pasar de la fila ya encontrada por otra tarea.
+         */
+        private int[] scanFirst() {
+            HeightEngine engine = null;
+            for (int i = from; i < to && i <= bound.get(); i++) {
+                if (engine == null) engine = new HeightEngine(source);
+                if (engine.maxTopBelow(i) >= height) break;
+                for (int j = i + 1; j < engine.size(); j++) {
+                    int newHeight = engine.heightWithSwap(i, j, height);
+                    if (newHeight < height) {
+                        bound.accumulateAndGet(i, Math::min);
+                        return new int[]{i, j, newHeight};
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Busca el par del rango que deja la torre más baja. Acepta alturas iguales a la mejor
+         * de otras tareas, porque un par anterior con la misma altura gana el desempate.
+         */
+        private int[] scanBest() {
+            HeightEngine engine = new HeightEngine(source);
+            int bestI = -1;
+            int bestJ = -1;
+            int bestHeight = height;
+            for (int i = from; i < to; i++) {
+                int limit = Math.min(bestHeight, bound.get() + 1);
+                if (engine.maxTopBelow(i) >= limit) break;
+                for (int j = i + 1; j < engine.size(); j++) {
+                    int newHeight = engine.heightWithSwap(i, j, limit);
+                    if (newHeight < limit) {
+                        bestI = i;
+                        bestJ = j;
+                        bestHeight = newHeight;
+                        bound.accumulateAndGet(newHeight, Math::min);
+                        limit = Math.min(bestHeight, bound.get() + 1);
+                    }
+                }
+            }
+            return bestI == -1 ? null : new int[]{bestI, bestJ, bestHeight};
+        }
+
+        /**
+         * Elige entre los resultados de dos rangos consecutivos; el de abajo gana los empates.
+         */
+        private int[] better(int[] lower, int[] upper) {
+            if (lower == null) return upper;
+            if (upper == null) return lower;
+            if (!best) return lower;
+            return upper[2] < lower[2] ? upper : lower;
+        }
+    }
+}
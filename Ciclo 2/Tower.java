@@ -1,5 +1,11 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
-import javax.swing.JOptionPane;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * Representa una torre de tazas apilables con tapas, basada en el problema Stacking Cups.
@@ -8,15 +14,31 @@ import javax.swing.JOptionPane;
  */
 public class Tower {
     public static final int SCALE = 10;
+    public static final int CUP_ITEM = 0;
+    public static final int LID_ITEM = 1;
+    private static final int FILE_MAGIC = 0x54575231;
+    private static final short FILE_VERSION = 1;
     private static final int X = 50; 
     private static final int Y = 50;
     private int width;
     private int maxHeight;
-    private List<Cup> cups;
+    private CupStore cups;
+    private Map<Integer, Cup> shapes;
+    private CupIndex positions;
+    private HeightEngine heights;
     private boolean visible;
-    private boolean lastOpOk;
-    private Rectangle leftBorder, rightBorder, base;
-    private List<Rectangle> marks;
+    private TowerStatus lastStatus;
+    private TowerView view;
+    private int batchDepth;
+    private boolean layoutPending;
+    private int layoutFrom = Integer.MAX_VALUE;
+    private int snapshotFrom;
+    private long positionUpdates;
+    private TowerMetrics metrics;
+    private int operation = -1;
+    private long operationStart;
+    private TowerJournal journal;
+    private boolean replaying;
 
     /**
      * Constructor para crear una torre vacía con dimensiones específicas.
@@ -26,10 +48,12 @@ public class Tower {
     public Tower(int width, int maxHeight) {
         this.width = width;
         this.maxHeight = maxHeight;
-        this.cups = new ArrayList<>();
-        this.marks = new ArrayList<>();
+        this.cups = new CupStore();
+        this.shapes = new HashMap<>();
+        this.positions = new CupIndex();
+        this.heights = new HeightEngine();
         this.visible = false;
-        this.lastOpOk = true;
+        this.lastStatus = TowerStatus.OK;
     }
     
     /**
@@ -39,175 +63,428 @@ public class Tower {
     public Tower(int cups) {
         this.width = 10;
         this.maxHeight = 20;
-        this.cups = new ArrayList<>();
-        this.marks = new ArrayList<>();
+        this.cups = new CupStore();
+        this.shapes = new HashMap<>();
+        this.positions = new CupIndex();
+        this.heights = new HeightEngine();
         this.visible = false;
-        this.lastOpOk = true;
+        this.lastStatus = TowerStatus.OK;
     
         for (int i = 1; i <= cups; i++) {
             pushCup(i);
         }
     }
 
+    /**
+     * Construye una torre con las tazas 1..n apiladas de forma que su altura sea exactamente h.
+     * El orden se arma directamente en O(n): la taza n siempre va apilada y las demás tazas
+     * apiladas en orden ascendente suman el resto de la altura; las que sobran se anidan
+     * en orden descendente dentro de la última. Si no existe tal orden, ok() devuelve false.
+     * @param n Cantidad de tazas.
+     * @param h Altura deseada, que también se usa como altura máxima de la torre.
+     * @return La torre construida, o una torre vacía si la altura no se puede lograr.
+     */
+    public static Tower forHeight(int n, int h) {
+        Tower tower = new Tower(10, h);
+        int[] order = stackingOrder(n, h);
+        if (order == null) {
+            tower.lastStatus = TowerStatus.NO_SOLUTION;
+            return tower;
+        }
+        for (int id : order) {
+            tower.appendCup(id, false, false);
+        }
+        tower.heights.recompute(0);
+        return tower;
+    }
+
+    /**
+     * Crea una torre invisible con las tazas y tapas de una copia inmutable, en O(n).
+     * @param snapshot Copia de la torre.
+     * @return La torre nueva.
+     */
+    public static Tower fromSnapshot(TowerSnapshot snapshot) {
+        Tower tower = new Tower(snapshot.width(), snapshot.maxHeight());
+        tower.reserve(snapshot.size());
+        for (int p = 0; p < snapshot.size(); p++) {
+            tower.appendCup(snapshot.id(p), snapshot.hasLid(p), snapshot.lidInCupColor(p));
+        }
+        tower.heights.recompute(0);
+        return tower;
+    }
+
+    /**
+     * Carga una torre guardada con {@link #save(Path)}. El archivo se lee mapeado en memoria y,
+     * como viene de una torre válida, las tazas se cargan sin las validaciones de pushCup.
+     * @param file Archivo de la torre.
+     * @return La torre cargada, invisible.
+     * @throws IOException Si no se puede leer el archivo o no tiene el formato esperado.
+     */
+    public static Tower load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 18 || in.getInt() != FILE_MAGIC) {
+                throw new IOException("El archivo no es una torre guardada: " + file);
+            }
+            short version = in.getShort();
+            if (version != FILE_VERSION) {
+                throw new IOException("Versión de archivo de torre no soportada: " + version);
+            }
+            Tower tower = new Tower(in.getInt(), in.getInt());
+            int count = in.getInt();
+            int bitsetBytes = (count + 7) >>> 3;
+            if (count < 0 || in.remaining() < count + 2L * bitsetBytes) {
+                throw new IOException("Cantidad de tazas inválida: " + count);
+            }
+            tower.reserve(count);
+            int lids = in.position();
+            int colors = lids + bitsetBytes;
+            in.position(colors + bitsetBytes);
+            int id = 0;
+            for (int p = 0; p < count; p++) {
+                int delta = readVarint(in);
+                id += (delta >>> 1) ^ -(delta & 1);
+                boolean lid = (in.get(lids + (p >>> 3)) & (1 << (p & 7))) != 0;
+                boolean inCupColor = (in.get(colors + (p >>> 3)) & (1 << (p & 7))) != 0;
+                tower.appendCup(id, lid, inCupColor);
+            }
+            tower.heights.recompute(0);
+            return tower;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Archivo de torre incompleto: " + file, e);
+        }
+    }
+
+    /**
+     * Guarda la torre en un formato binario compacto: un encabezado con número mágico, versión,
+     * ancho, altura máxima y cantidad de tazas; un bitset con las tazas tapadas y otro con las
+     * tapas del color de la taza; y los identificadores de abajo hacia arriba, cada uno como la
+     * diferencia con el anterior en zigzag y varint (1 byte por taza en órdenes consecutivos).
+     * @param file Archivo donde guardar la torre.
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    public void save(Path file) throws IOException {
+        int n = cups.size();
+        byte[] lids = new byte[(n + 7) >>> 3];
+        byte[] colors = new byte[lids.length];
+        for (int p = 0; p < n; p++) {
+            if (cups.hasLid(p)) lids[p >>> 3] |= (byte) (1 << (p & 7));
+            if (cups.lidInCupColor(p)) colors[p >>> 3] |= (byte) (1 << (p & 7));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(1 << 16);
+            out.putInt(FILE_MAGIC).putShort(FILE_VERSION).putInt(width).putInt(maxHeight).putInt(n);
+            flush(channel, out);
+            writeFully(channel, ByteBuffer.wrap(lids));
+            writeFully(channel, ByteBuffer.wrap(colors));
+            int previous = 0;
+            for (int p = 0; p < n; p++) {
+                if (out.remaining() < 5) flush(channel, out);
+                int delta = cups.id(p) - previous;
+                putVarint(out, (delta << 1) ^ (delta >> 31));
+                previous = cups.id(p);
+            }
+            flush(channel, out);
+        }
+    }
+
+    /**
+     * Crea una copia inmutable de la torre en O(n). Las copias se pueden bifurcar y editar
+     * sin afectar esta torre ni entre sí.
+     * @return La copia de la torre.
+     */
+    public TowerSnapshot snapshot() {
+        int n = cups.size();
+        int[] ids = new int[n];
+        byte[] flags = new byte[n];
+        for (int p = 0; p < n; p++) {
+            ids[p] = cups.id(p);
+            flags[p] = snapshotFlags(p);
+        }
+        return TowerSnapshot.of(width, maxHeight, ids, flags, n);
+    }
+
+    /**
+     * Actualiza la copia inmutable que devolvió la llamada anterior a este método con lo que
+     * cambió desde entonces. Se quitan de la copia las tazas desde la posición más baja que cambió
+     * y se vuelven a agregar, en O(log n) cada una y compartiendo el resto; si cambió más de una
+     * decimosexta parte de la torre se copia completa, como snapshot().
+     * @param previous Copia que devolvió la llamada anterior, o null en la primera.
+     * @return La copia actual, que es previous misma si la torre no cambió.
+     */
+    TowerSnapshot snapshot(TowerSnapshot previous) {
+        int n = cups.size();
+        int from = snapshotFrom;
+        snapshotFrom = Integer.MAX_VALUE;
+        if (previous == null) return snapshot();
+        from = Math.min(from, Math.min(n, previous.size()));
+        int changed = (previous.size() - from) + (n - from);
+        if (changed == 0) return previous;
+        if (16 * changed > n) return snapshot();
+        TowerSnapshot next = previous;
+        while (next.size() > from) next = next.popCup();
+        for (int p = from; p < n; p++) next = next.push(cups.id(p), snapshotFlags(p));
+        return next;
+    }
+
+    /**
+     * Deja la torre con las tazas y tapas de una copia de otra torre de las mismas dimensiones.
+     * Las tazas de abajo que coinciden con la copia se conservan, así que el costo es proporcional
+     * a lo que cambió y, si la torre es visible, solo se mueven esas tazas. No se puede deshacer:
+     * el historial se olvida.
+     * @param snapshot Copia de una torre válida con el mismo ancho y altura máxima.
+     * @return OK.
+     */
+    public TowerStatus restore(TowerSnapshot snapshot) {
+        if (snapshot.width() != width || snapshot.maxHeight() != maxHeight) {
+            throw new IllegalArgumentException("La copia es de una torre de otras dimensiones");
+        }
+        int lowest = 0;
+        while (lowest < cups.size() && lowest < snapshot.size() && cups.id(lowest) == snapshot.id(lowest)
+                && cups.hasLid(lowest) == snapshot.hasLid(lowest)
+                && cups.lidInCupColor(lowest) == snapshot.lidInCupColor(lowest)) {
+            lowest++;
+        }
+        int[] removed = new int[cups.size() - lowest];
+        while (cups.size() > lowest) {
+            int id = cups.id(cups.size() - 1);
+            positions.remove(id);
+            removed[cups.size() - 1 - lowest] = id;
+            cups.removeLast();
+            heights.pop();
+        }
+        reserve(snapshot.size());
+        for (int p = lowest; p < snapshot.size(); p++) {
+            appendCup(snapshot.id(p), snapshot.hasLid(p), snapshot.lidInCupColor(p));
+        }
+        heights.recompute(lowest);
+        for (int id : removed) {
+            if (!positions.contains(id)) hideShape(id);
+        }
+        if (journal != null) journal.clear();
+        reorganize(lowest);
+        return done(TowerStatus.OK);
+    }
+
     /**
      * Intenta añadir una nueva taza a la cima de la torre.
      * @param i Identificador único de la taza a añadir.
+     * @return OK, DUPLICATE_CUP o NO_SPACE.
      */
-    public void pushCup(int i) {
-        if (findCup(i) != null) {
-            error("La taza " + i + " ya existe");
-            return;
+    public TowerStatus pushCup(int i) {
+        begin(TowerMetrics.PUSH_CUP);
+        if (positions.contains(i)) {
+            return error(TowerStatus.DUPLICATE_CUP, "La taza " + i + " ya existe");
         }
         int cupHeight = 2 * i - 1;
-        Cup newCup = new Cup(i, cupHeight, width, randomColor(i));
         
-        if (height() + newCup.totalHeight() <= maxHeight) {
-            cups.add(newCup);
-            reorganize();
-            lastOpOk = true;
+        if (heights.heightIfPushed(cupHeight, cupHeight) <= maxHeight) {
+            appendCup(i, false, false);
+            heights.recompute(cups.size() - 1);
+            reorganize(cups.size() - 1);
+            record(TowerJournal.PUSH_CUP, i, 0, 0, null);
+            return done(TowerStatus.OK);
         } else {
-            error("No hay espacio en la torre");
+            return error(TowerStatus.NO_SPACE, "No hay espacio en la torre");
         }
     }
 
     /**
      * Elimina la taza que se encuentra en la cima de la torre.
+     * @return OK, o EMPTY si la torre no tiene tazas.
      */
-    public void popCup() {
-        if (!cups.isEmpty()) {
-            cups.remove(cups.size() - 1).hide();
-            reorganize();
-            lastOpOk = true;
+    public TowerStatus popCup() {
+        begin(TowerMetrics.POP_CUP);
+        if (cups.size() > 0) {
+            int id = cups.id(cups.size() - 1);
+            record(TowerJournal.POP_CUP, id, 0, lidFlags(cups.size() - 1), null);
+            cups.removeLast();
+            positions.remove(id);
+            heights.pop();
+            hideShape(id);
+            reorganize(cups.size());
+            return done(TowerStatus.OK);
         } else {
-            lastOpOk = false;
+            return done(TowerStatus.EMPTY);
         }
     }
 
     /**
      * Elimina una taza específica de la torre según su identificador.
      * @param i Identificador de la taza a remover.
+     * @return OK o CUP_NOT_FOUND.
      */
-    public void removeCup(int i) {
-        Cup c = findCup(i);
-        if (c != null) {
-            cups.remove(c);
-            c.hide();
-            reorganize();
-            lastOpOk = true;
+    public TowerStatus removeCup(int i) {
+        begin(TowerMetrics.REMOVE_CUP);
+        int p = positions.get(i);
+        if (p != -1) {
+            record(TowerJournal.REMOVE_CUP, i, p, lidFlags(p), null);
+            cups.remove(p);
+            positions.remove(i);
+            heights.remove(p);
+            reindex(p);
+            hideShape(i);
+            reorganize(p);
+            return done(TowerStatus.OK);
         } else {
-            lastOpOk = false;
+            return done(TowerStatus.CUP_NOT_FOUND);
         }
     }
 
     /**
      * Crea y coloca una tapa negra sobre una taza específica.
      * @param i Identificador de la taza a la que se le pondrá la tapa.
+     * @return OK, CUP_NOT_FOUND, LID_PRESENT o NO_SPACE.
      */
-    public void pushLid(int i) {
-        Cup c = findCup(i);
+    public TowerStatus pushLid(int i) {
+        begin(TowerMetrics.PUSH_LID);
+        int p = positions.get(i);
     
-        if (c == null) {
-            lastOpOk = false;
-            return;
+        if (p == -1) {
+            return done(TowerStatus.CUP_NOT_FOUND);
         }
         
-        if (c.hasLid()) {
-            error("La taza " + i + " ya tiene tapa.");
-            return;
+        if (cups.hasLid(p)) {
+            return error(TowerStatus.LID_PRESENT, "La taza " + i + " ya tiene tapa.");
         }
     
-        Lid newLid = new Lid(i, width, "black"); 
-        if (height() + newLid.getHeight() <= maxHeight) {
-            c.putLid(newLid); 
-            
-            if (visible) {
-                reorganize(); 
-            }
-            lastOpOk = true;
+        cups.setLid(p, true, false);
+        syncHeight(p);
+        if (heights.height() <= maxHeight) {
+            reorganize(p);
+            record(TowerJournal.PUSH_LID, i, 0, 0, null);
+            return done(TowerStatus.OK);
         } else {
-            error("No hay espacio para la tapa en la torre.");
+            cups.setLid(p, false, false);
+            syncHeight(p);
+            return error(TowerStatus.NO_SPACE, "No hay espacio para la tapa en la torre.");
         }
     }
 
     /**
      * Elimina la tapa de la taza más alta que tenga una puesta.
+     * @return OK, o EMPTY si ninguna taza tiene tapa.
      */
-    public void popLid() {
-        lastOpOk = false;
-        for (int i = cups.size() - 1; i >= 0; i--) {
-            if (cups.get(i).hasLid()) {
-                cups.get(i).removeLid();
-                reorganize();
-                lastOpOk = true;
-                break;
+    public TowerStatus popLid() {
+        begin(TowerMetrics.POP_LID);
+        for (int p = cups.size() - 1; p >= 0; p--) {
+            if (cups.hasLid(p)) {
+                record(TowerJournal.REMOVE_LID, cups.id(p), 0, lidFlags(p), null);
+                cups.setLid(p, false, false);
+                syncHeight(p);
+                reorganize(p);
+                return done(TowerStatus.OK);
             }
         }
+        return done(TowerStatus.EMPTY);
     }
 
     /**
      * Elimina la tapa de una taza específica.
      * @param i Identificador de la taza a la cual quitar la tapa.
+     * @return OK, CUP_NOT_FOUND o LID_MISSING.
      */
-    public void removeLid(int i) {
-        Cup c = findCup(i);
-        if (c != null && c.hasLid()) {
-            c.removeLid();
-            reorganize();
-            lastOpOk = true;
-        } else {
-            lastOpOk = false;
+    public TowerStatus removeLid(int i) {
+        begin(TowerMetrics.REMOVE_LID);
+        int p = positions.get(i);
+        if (p == -1) {
+            return done(TowerStatus.CUP_NOT_FOUND);
+        }
+        if (!cups.hasLid(p)) {
+            return done(TowerStatus.LID_MISSING);
         }
+        record(TowerJournal.REMOVE_LID, i, 0, lidFlags(p), null);
+        cups.setLid(p, false, false);
+        syncHeight(p);
+        reorganize(p);
+        return done(TowerStatus.OK);
     }
     
     /**
      * Intercambia la posición de dos tazas en la torre.
      * @param o1 Arreglo que representa el primer objeto (ej: ["cup", "1"]).
      * @param o2 Arreglo que representa el segundo objeto (ej: ["cup", "2"]).
+     * @return OK, NOT_A_CUP o CUP_NOT_FOUND.
      */
-    public void swap(String[] o1, String[] o2) {
+    public TowerStatus swap(String[] o1, String[] o2) {
+        begin(TowerMetrics.SWAP);
         if (!o1[0].equals("cup") || !o2[0].equals("cup")) {
-            lastOpOk = false;
-            return;
+            return done(TowerStatus.NOT_A_CUP);
         }
     
-        int id1 = Integer.parseInt(o1[1]);
-        int id2 = Integer.parseInt(o2[1]);
-    
-        int i1 = -1;
-        int i2 = -1;
+        return swapCups(Integer.parseInt(o1[1]), Integer.parseInt(o2[1]));
+    }
+
+    /**
+     * Intercambia la posición de dos tazas dadas por su identificador.
+     * @param id1 Identificador de la primera taza.
+     * @param id2 Identificador de la segunda taza.
+     * @return OK o CUP_NOT_FOUND.
+     */
+    public TowerStatus swap(int id1, int id2) {
+        begin(TowerMetrics.SWAP);
+        return swapCups(id1, id2);
+    }
+
+    /**
+     * Intercambia dos tazas dentro de una operación ya empezada con begin(), para que las dos
+     * versiones de swap midan desde su propio comienzo una sola vez.
+     * @param id1 Identificador de la primera taza.
+     * @param id2 Identificador de la segunda taza.
+     * @return OK o CUP_NOT_FOUND.
+     */
+    private TowerStatus swapCups(int id1, int id2) {
+        int i1 = positions.get(id1);
+        int i2 = positions.get(id2);
     
-        for (int i = 0; i < cups.size(); i++) {
-            if (cups.get(i).getId() == id1) i1 = i;
-            if (cups.get(i).getId() == id2) i2 = i;
-        }
         if (i1 != -1 && i2 != -1) {
-            Collections.swap(cups, i1, i2);
-            reorganize();
-            lastOpOk = true;
+            cups.swap(i1, i2);
+            positions.put(id1, i2);
+            positions.put(id2, i1);
+            swapHeights(i1, i2);
+            reorganize(Math.min(i1, i2));
+            record(TowerJournal.SWAP, id1, id2, 0, null);
+            return done(TowerStatus.OK);
         } else {
-            lastOpOk = false;
+            return done(TowerStatus.CUP_NOT_FOUND);
         }
     }   
     
     /**
      * Intenta poner tapas a todas las tazas de la torre que no tengan una.
      * Si no hay espacio para alguna tapa, la operación se detiene.
+     * Como cada tapa solo puede aumentar la altura, se busca por bisección cuántas tapas caben.
+     * @return OK, o NO_SPACE si alguna taza quedó sin tapa.
      */
-    public void cover() {
-        for (Cup cup : cups) {
-            if (!cup.hasLid()) {
-                Lid newLid = new Lid(cup.getId(), cup.getWidth(), cup.getColor());
-                if (height() + newLid.getHeight() <= maxHeight) {
-                    cup.putLid(newLid);
-                } else {
-                    lastOpOk = false;
-                    reorganize();
-                    return;
-                }
+    public TowerStatus cover() {
+        begin(TowerMetrics.COVER);
+        int[] open = new int[cups.size()];
+        int openCount = 0;
+        for (int p = 0; p < cups.size(); p++) {
+            if (!cups.hasLid(p)) open[openCount++] = p;
+        }
+        int fits = openCount;
+        if (openCount > 0 && heightWithLids(open, openCount, fits) > maxHeight) {
+            int lo = 0;
+            while (lo + 1 < fits) {
+                int mid = (lo + fits) >>> 1;
+                if (heightWithLids(open, openCount, mid) <= maxHeight) lo = mid;
+                else fits = mid;
             }
+            fits = lo;
+        }
+        for (int k = 0; k < openCount; k++) {
+            cups.setLid(open[k], k < fits, true);
+        }
+        if (openCount > 0) heightWithLids(open, openCount, fits);
+        reorganize(openCount > 0 ? open[0] : cups.size());
+        if (fits > 0 && journal != null) {
+            int[] lidded = new int[fits];
+            for (int k = 0; k < fits; k++) lidded[k] = cups.id(open[k]);
+            record(TowerJournal.COVER, 0, 0, 0, lidded);
         }
-        reorganize();
-        lastOpOk = true;
+        return done(fits == openCount ? TowerStatus.OK : TowerStatus.NO_SPACE);
     }
     
     /**
@@ -215,59 +492,104 @@ public class Tower {
      * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
      */
     public String[][] swapToReduce() {
-        int currentHeight = height();
-        for (int i = 0; i < cups.size(); i++) {
-            for (int j = i + 1; j < cups.size(); j++) {
-                Collections.swap(cups, i, j);
-                int newHeight = height();
-                Collections.swap(cups, i, j);
-                if (newHeight < currentHeight) {
-                    return new String[][]{
-                        {"cup", String.valueOf(cups.get(i).getId())},
-                        {"cup", String.valueOf(cups.get(j).getId())}
-                    };
-                }
-            }
-        }
-        return new String[0][0];
+        return swapPair(SwapSearch.find(heights, false));
+    }
+
+    /**
+     * Busca, entre todos los intercambios de dos tazas, el que deja la torre más baja.
+     * Si varios dejan la misma altura se devuelve el primero en orden de posiciones.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] bestSwapToReduce() {
+        return swapPair(SwapSearch.find(heights, true));
+    }
+
+    /**
+     * Busca en paralelo un intercambio que reduzca la altura, con el mismo resultado que {@link #swapToReduce()}.
+     * La torre no se modifica durante la búsqueda; cada tarea trabaja sobre su propia copia de las alturas.
+     * @param pool Grupo de hilos donde se reparte la búsqueda.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] swapToReduce(ForkJoinPool pool) {
+        return swapPair(SwapSearch.find(heights, false, pool));
+    }
+
+    /**
+     * Busca en paralelo el intercambio que deja la torre más baja, con el mismo resultado que
+     * {@link #bestSwapToReduce()}, incluido el desempate por el primer par en orden de posiciones.
+     * @param pool Grupo de hilos donde se reparte la búsqueda.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] bestSwapToReduce(ForkJoinPool pool) {
+        return swapPair(SwapSearch.find(heights, true, pool));
     }
 
     /**
      * Ordena las tazas de la torre de forma descendente según su identificador.
+     * @return Siempre OK.
      */
-    public void orderTower() {
-        cups.sort((a, b) -> b.getId() - a.getId());
-        reorganize();
-        lastOpOk = true;
+    public TowerStatus orderTower() {
+        begin(TowerMetrics.ORDER);
+        if (journal != null && !replaying) {
+            int[] previous = new int[cups.size()];
+            for (int p = 0; p < previous.length; p++) previous[p] = cups.id(p);
+            record(TowerJournal.ORDER, 0, 0, 0, previous);
+        }
+        cups.sortByIdDescending();
+        reindex(0);
+        rebuildHeights();
+        reorganize(0);
+        return done(TowerStatus.OK);
     }
 
     /**
      * Invierte el orden actual de las tazas en la torre.
+     * @return Siempre OK.
      */
-    public void reverseTower() {
-        Collections.reverse(cups);
-        reorganize();
-        lastOpOk = true;
+    public TowerStatus reverseTower() {
+        begin(TowerMetrics.REVERSE);
+        cups.reverse();
+        reindex(0);
+        rebuildHeights();
+        reorganize(0);
+        record(TowerJournal.REVERSE, 0, 0, 0, null);
+        return done(TowerStatus.OK);
     }
 
     /**
-     * Calcula la altura total actual de la torre sumando tazas y tapas.
+     * Obtiene la altura real de la torre, teniendo en cuenta las tazas anidadas y las tapas.
+     * Se mantiene en el motor de alturas al agregar, quitar o mover tazas y tapas.
+     * Con las aserciones activas (-ea) se compara contra el recálculo lineal del motor, en O(n).
      * @return Altura total en unidades.
      */
     public int height() {
-        return cups.stream().mapToInt(Cup::totalHeight).sum();
+        assert heights.height() == heights.linearHeight() : "Altura en caché desincronizada";
+        if (metrics == null) return heights.height();
+        long start = System.nanoTime();
+        int height = heights.height();
+        metrics.record(TowerMetrics.HEIGHT, TowerStatus.OK, System.nanoTime() - start);
+        return height;
     }
 
     /**
      * Obtiene los identificadores de todas las tazas que tienen tapa actualmente.
+     * Las tazas tapadas se llevan ya ordenadas, así que no se ordena en cada llamada.
      * @return Arreglo de enteros con los IDs ordenados.
      */
     public int[] lidedCups() {
-        return cups.stream()
-            .filter(Cup::hasLid)
-            .mapToInt(Cup::getId)
-            .sorted()
-            .toArray();
+        int[] lided = new int[cups.lidCount()];
+        cups.lidedIds(lided);
+        return lided;
+    }
+
+    /**
+     * Copia en orden ascendente los identificadores de las tazas tapadas, sin crear objetos.
+     * Si el arreglo es más corto, se llena con los primeros y el resultado indica el tamaño necesario.
+     * @param into Arreglo destino.
+     * @return Cantidad total de tazas tapadas.
+     */
+    public int lidedCups(int[] into) {
+        return cups.lidedIds(into);
     }
 
     /**
@@ -275,14 +597,137 @@ public class Tower {
      * @return Arreglo bidimensional de Strings con el tipo y ID de cada elemento.
      */
     public String[][] stackingItems() {
-        List<String[]> items = new ArrayList<>();
-        for (Cup c : cups) {
-            items.add(new String[]{"cup", String.valueOf(c.getId())});
-            if (c.hasLid()) {
-                items.add(new String[]{"lid", String.valueOf(c.getId())});
+        String[][] items = new String[cups.size() + cups.lidCount()][];
+        int k = 0;
+        for (int p = 0; p < cups.size(); p++) {
+            String id = String.valueOf(cups.id(p));
+            items[k++] = new String[]{"cup", id};
+            if (cups.hasLid(p)) {
+                items[k++] = new String[]{"lid", id};
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Copia los elementos de la torre en el orden en que están apilados, sin crear objetos.
+     * Cada elemento ocupa dos enteros: su tipo ({@link #CUP_ITEM} o {@link #LID_ITEM}) y el ID de la taza.
+     * Si el arreglo es más corto, se llena con los primeros elementos que caben completos.
+     * @param into Arreglo destino, de al menos el doble de la cantidad de elementos.
+     * @return Cantidad total de elementos (tazas más tapas) de la torre.
+     */
+    public int stackingItems(int[] into) {
+        int k = 0;
+        for (int p = 0; p < cups.size() && k + 1 < into.length; p++) {
+            into[k++] = CUP_ITEM;
+            into[k++] = cups.id(p);
+            if (cups.hasLid(p) && k + 1 < into.length) {
+                into[k++] = LID_ITEM;
+                into[k++] = cups.id(p);
             }
         }
-        return items.toArray(new String[items.size()][]);
+        return cups.size() + cups.lidCount();
+    }
+
+    /**
+     * Recorre los elementos de la torre en el orden en que están apilados, sin crear objetos.
+     * @param visitor Recibe el tipo y el ID de cada taza y cada tapa.
+     */
+    public void forEachItem(StackingVisitor visitor) {
+        for (int p = 0; p < cups.size(); p++) {
+            visitor.visit(CUP_ITEM, cups.id(p));
+            if (cups.hasLid(p)) visitor.visit(LID_ITEM, cups.id(p));
+        }
+    }
+
+    /**
+     * Indica si una taza está en la torre.
+     * @param i Identificador de la taza.
+     * @return true si la taza está en la torre.
+     */
+    public boolean hasCup(int i) {
+        return positions.contains(i);
+    }
+
+    /**
+     * Indica si una taza está en la torre y tiene tapa.
+     * @param i Identificador de la taza.
+     * @return true si la taza está en la torre con tapa.
+     */
+    public boolean hasLid(int i) {
+        int p = positions.get(i);
+        return p != -1 && cups.hasLid(p);
+    }
+
+    /**
+     * Activa o desactiva las métricas de las operaciones de la torre. Una misma instancia de
+     * métricas se puede compartir entre varias torres.
+     * @param metrics Métricas donde registrar cada operación, o null para no medir.
+     */
+    public void setMetrics(TowerMetrics metrics) {
+        this.metrics = metrics;
+        this.operation = -1;
+    }
+
+    /**
+     * Cuenta las veces que se ha movido una taza en el lienzo (llamadas a setPosition) desde que se creó
+     * la torre. La diferencia antes y después de una operación es la cantidad de tazas que movió.
+     * @return Cantidad de tazas movidas.
+     */
+    public long positionUpdates() {
+        return positionUpdates;
+    }
+
+    /**
+     * Dibuja la torre con un pintor, con la misma geometría y los mismos colores que tiene en el Canvas:
+     * primero el marco y las marcas y luego cada taza de abajo hacia arriba, con su tapa encima,
+     * entre beginCup() y endCup().
+     * No usa el Canvas ni necesita que la torre sea visible, así que sirve también para torres más
+     * altas que el lienzo.
+     * @param painter Pintor que recibe los rectángulos.
+     * @param marks true para incluir las marcas de nivel, una por cada unidad de altura máxima.
+     */
+    public void paint(TowerPainter painter, boolean marks) {
+        TowerView.draw(painter, X, Y, width, maxHeight, marks);
+        int groundY = Y + (maxHeight * SCALE);
+        for (int p = 0; p < cups.size(); p++) {
+            int id = cups.id(p);
+            String color = randomColor(id);
+            int centeredX = X + ((this.width - cups.width(p)) * SCALE) / 2;
+            painter.beginCup(id);
+            CupView.draw(painter, centeredX, groundY - heights.top(p) * SCALE, cups.cupHeight(p), cups.width(p),
+                cups.hasLid(p), cups.hasLid(p) ? "black" : color, cups.lidInCupColor(p) ? color : "black");
+            painter.endCup(id);
+        }
+    }
+
+    /**
+     * Obtiene el ancho del dibujo de la torre, desde el borde izquierdo del Canvas.
+     * @return Ancho en píxeles.
+     */
+    public int canvasWidth() {
+        return TowerView.right(X, width);
+    }
+
+    /**
+     * Obtiene el alto del dibujo de la torre, desde el borde superior del Canvas.
+     * @return Alto en píxeles.
+     */
+    public int canvasHeight() {
+        return TowerView.bottom(Y, maxHeight);
+    }
+
+    /**
+     * Obtiene las tazas visibles en el orden en que el Canvas las pinta, de la que queda más atrás
+     * a la que queda encima. En una torre bien dibujada coincide con el orden de abajo hacia arriba.
+     * @return IDs de las tazas mostradas; vacío si la torre no es visible.
+     */
+    public int[] drawingOrder() {
+        List<Cup> shown = new ArrayList<>(shapes.values());
+        shown.sort(Comparator.comparingLong(Cup::drawnAt));
+        int[] order = new int[shown.size()];
+        for (int k = 0; k < order.length; k++) order[k] = shown.get(k).getId();
+        return order;
     }
 
     /**
@@ -290,15 +735,15 @@ public class Tower {
      */
     public void makeVisible() {
         if ((maxHeight * SCALE) + Y > 800) {
-            lastOpOk = false;
+            lastStatus = TowerStatus.TOO_TALL_TO_SHOW;
             return;
         }
-        Canvas.getCanvas(); 
+        if (view == null) {
+            view = new TowerView(X, Y, width, maxHeight);
+        }
         visible = true;
-        drawFrame();
-        drawMarks();
-        reorganize();
-        lastOpOk = true;
+        reorganize(0);
+        lastStatus = TowerStatus.OK;
     }
 
     /**
@@ -306,9 +751,115 @@ public class Tower {
      */
     public void makeInvisible() {
         visible = false;
-        hideFrame();
-        for (Cup c : cups) c.hide();
-        lastOpOk = true;
+        if (view != null) {
+            view.hide();
+            view = null;
+        }
+        for (Cup c : shapes.values()) c.hide();
+        shapes.clear();
+        lastStatus = TowerStatus.OK;
+    }
+
+    /**
+     * Activa el historial para deshacer y rehacer operaciones, olvidando el que hubiera.
+     * Se recuerdan a lo sumo las últimas capacity operaciones; con 0 se desactiva.
+     * @param capacity Cantidad máxima de operaciones que se pueden deshacer.
+     */
+    public void setUndoLimit(int capacity) {
+        journal = capacity > 0 ? new TowerJournal(capacity) : null;
+    }
+
+    /**
+     * Deshace la última operación que cambió la torre.
+     * @return OK, o EMPTY si no hay operaciones para deshacer.
+     */
+    public TowerStatus undo() {
+        if (journal == null || !journal.canUndo()) return done(TowerStatus.EMPTY);
+        int s = journal.undo();
+        int id = journal.first(s);
+        replaying = true;
+        try {
+            switch (journal.kind(s)) {
+                case TowerJournal.PUSH_CUP: popCup(); break;
+                case TowerJournal.POP_CUP: restoreCup(cups.size(), id, journal.third(s)); break;
+                case TowerJournal.REMOVE_CUP: restoreCup(journal.second(s), id, journal.third(s)); break;
+                case TowerJournal.PUSH_LID: removeLid(id); break;
+                case TowerJournal.REMOVE_LID: setLids(new int[]{id}, journal.third(s)); break;
+                case TowerJournal.SWAP: swap(id, journal.second(s)); break;
+                case TowerJournal.REVERSE: reverseTower(); break;
+                case TowerJournal.ORDER: restoreOrder(journal.payload(s)); break;
+                case TowerJournal.COVER: setLids(journal.payload(s), 0); break;
+                default: break;
+            }
+        } finally {
+            replaying = false;
+        }
+        return done(TowerStatus.OK);
+    }
+
+    /**
+     * Vuelve a hacer la última operación deshecha.
+     * @return OK, o EMPTY si no hay operaciones para rehacer.
+     */
+    public TowerStatus redo() {
+        if (journal == null || !journal.canRedo()) return done(TowerStatus.EMPTY);
+        int s = journal.redo();
+        int id = journal.first(s);
+        replaying = true;
+        try {
+            switch (journal.kind(s)) {
+                case TowerJournal.PUSH_CUP: pushCup(id); break;
+                case TowerJournal.POP_CUP: popCup(); break;
+                case TowerJournal.REMOVE_CUP: removeCup(id); break;
+                case TowerJournal.PUSH_LID: pushLid(id); break;
+                case TowerJournal.REMOVE_LID: removeLid(id); break;
+                case TowerJournal.SWAP: swap(id, journal.second(s)); break;
+                case TowerJournal.REVERSE: reverseTower(); break;
+                case TowerJournal.ORDER: orderTower(); break;
+                case TowerJournal.COVER: setLids(journal.payload(s), 3); break;
+                default: break;
+            }
+        } finally {
+            replaying = false;
+        }
+        return done(TowerStatus.OK);
+    }
+
+    /**
+     * Inicia un lote de operaciones. Mientras el lote esté abierto, las operaciones cambian
+     * la torre de inmediato y ok() informa el resultado de cada una, pero la torre no se
+     * redibuja hasta {@link #commit()}. Los lotes se pueden anidar.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Cierra el lote abierto con {@link #beginBatch()}. Al cerrar el lote más externo,
+     * la torre se reorganiza y se redibuja una sola vez si alguna operación lo necesitaba.
+     * No cambia el resultado de ok().
+     */
+    public void commit() {
+        if (batchDepth == 0) return;
+        batchDepth--;
+        if (batchDepth == 0 && layoutPending) {
+            layoutPending = false;
+            reorganize(layoutFrom);
+        }
+    }
+
+    /**
+     * Ejecuta un grupo de operaciones como un lote y redibuja la torre una sola vez al final.
+     * Dentro del grupo, ok() informa el resultado de cada operación.
+     * @param ops Operaciones a aplicar sobre la torre.
+     */
+    public void batch(Consumer<Tower> ops) {
+        beginBatch();
+        try {
+            ops.accept(this);
+        } finally {
+            commit();
+        }
     }
 
     /**
@@ -323,93 +874,378 @@ public class Tower {
      * @return true si la operación se completó correctamente, false de lo contrario.
      */
     public boolean ok() {
-        return lastOpOk;
+        return lastStatus.isOk();
+    }
+
+    /**
+     * Obtiene el resultado detallado de la última operación realizada.
+     * @return Resultado de la última operación.
+     */
+    public TowerStatus status() {
+        return lastStatus;
+    }
+
+    /**
+     * Calcula el orden de apilamiento de las tazas 1..n que da una altura exacta.
+     * Las tazas apiladas una sobre otra suman sus alturas (2k - 1), y las sumas posibles de
+     * los primeros m impares son todos los valores de 0 a m² excepto 2 y m² - 2. La altura
+     * 2n + 1 se logra aparte con n &ge; 4, apilando las tazas 2 y n - 1 dentro de la taza n.
+     * @param n Cantidad de tazas.
+     * @param h Altura deseada.
+     * @return Los identificadores de abajo hacia arriba, o null si la altura no se puede lograr.
+     */
+    private static int[] stackingOrder(int n, int h) {
+        if (n <= 0) return h == 0 ? new int[0] : null;
+        int[] order = new int[n];
+        int p = 0;
+        if (h == 2L * n + 1 && n >= 4) {
+            order[p++] = n;
+            order[p++] = 2;
+            order[p++] = n - 1;
+            for (int k = n - 2; k >= 1; k--) {
+                if (k != 2) order[p++] = k;
+            }
+            return order;
+        }
+        long rest = h - (2L * n - 1);
+        if (!isOddSum(rest, n - 1)) return null;
+        boolean[] stacked = new boolean[n + 1];
+        stacked[n] = true;
+        for (int k = n - 1; k >= 1; k--) {
+            int odd = 2 * k - 1;
+            if (rest >= odd && isOddSum(rest - odd, k - 1)) {
+                stacked[k] = true;
+                rest -= odd;
+            }
+        }
+        for (int k = 1; k <= n; k++) {
+            if (stacked[k]) order[p++] = k;
+        }
+        for (int k = n; k >= 1; k--) {
+            if (!stacked[k]) order[p++] = k;
+        }
+        return order;
+    }
+
+    /**
+     * Indica si un valor se puede escribir como suma de impares distintos entre 1 y 2m - 1.
+     * @param value Valor buscado.
+     * @param m Cantidad de impares disponibles.
+     * @return true si la suma es posible.
+     */
+    private static boolean isOddSum(long value, int m) {
+        long max = (long) m * m;
+        return value >= 0 && value <= max && value != 2 && value != max - 2;
+    }
+
+    /**
+     * Reserva espacio para cargar una cantidad de tazas sin agrandar los arreglos una y otra vez.
+     */
+    private void reserve(int count) {
+        cups.reserve(count);
+        positions.reserve(count);
+        heights.reserve(count);
+    }
+
+    /**
+     * Agrega una taza en la cima sin validar si ya existe ni si cabe. Solo se usa con órdenes
+     * que ya se sabe que son válidos; después hay que ubicarla en el motor de alturas.
+     * @param id Identificador de la taza, que define su altura 2i - 1.
+     * @param lid true si la taza debe quedar con tapa.
+     * @param inCupColor true si la tapa usa el color de la taza.
+     */
+    private void appendCup(int id, boolean lid, boolean inCupColor) {
+        int p = cups.size();
+        cups.add(id, 2 * id - 1, width);
+        cups.setLid(p, lid, inCupColor);
+        positions.put(id, p);
+        heights.append(cups.cupHeight(p), cups.blockHeight(p), lid);
+    }
+
+    /**
+     * Escribe un entero sin signo en 7 bits por byte, con el bit alto indicando que sigue otro byte.
+     */
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Escribe en el canal lo acumulado en el búfer y lo deja vacío.
+     */
+    private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        writeFully(channel, out);
+        out.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) channel.write(data);
+    }
+
+    /**
+     * Lee un entero escrito con putVarint.
+     */
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Entero mal codificado en el archivo de torre");
+    }
+
+    /**
+     * Registra una operación en el historial, si está activo y no se está deshaciendo o rehaciendo.
+     */
+    private void record(byte kind, int first, int second, int third, int[] payload) {
+        if (journal != null && !replaying) journal.record(kind, first, second, third, payload);
+    }
+
+    /**
+     * Codifica el estado de la tapa de una posición como en el historial: 1 con tapa, 2 del color de la taza.
+     */
+    private int lidFlags(int p) {
+        return (cups.hasLid(p) ? 1 : 0) | (cups.lidInCupColor(p) ? 2 : 0);
+    }
+
+    /**
+     * Vuelve a poner una taza quitada en su posición, con el estado de tapa que tenía.
+     */
+    private void restoreCup(int p, int id, int flags) {
+        cups.insert(p, id, 2 * id - 1, width);
+        cups.setLid(p, (flags & 1) != 0, (flags & 2) != 0);
+        heights.insert(p, cups.cupHeight(p), cups.blockHeight(p), cups.hasLid(p));
+        reindex(p);
+        reorganize(p);
+    }
+
+    /**
+     * Pone el mismo estado de tapa a varias tazas y recalcula desde la más baja.
+     * @param ids Identificadores de las tazas.
+     * @param flags 0 sin tapa, 1 con tapa negra, 3 con tapa del color de la taza.
+     */
+    private void setLids(int[] ids, int flags) {
+        int lowest = cups.size();
+        for (int id : ids) {
+            int p = positions.get(id);
+            cups.setLid(p, (flags & 1) != 0, (flags & 2) != 0);
+            heights.set(p, cups.cupHeight(p), cups.blockHeight(p), cups.hasLid(p));
+            lowest = Math.min(lowest, p);
+        }
+        heights.recompute(lowest);
+        reorganize(lowest);
+    }
+
+    /**
+     * Devuelve las tazas al orden dado por sus identificadores, con sus tapas.
+     */
+    private void restoreOrder(int[] ids) {
+        int[] order = new int[ids.length];
+        for (int k = 0; k < ids.length; k++) {
+            order[k] = positions.get(ids[k]);
+        }
+        cups.reorder(order);
+        reindex(0);
+        rebuildHeights();
+        reorganize(0);
+    }
+
+    /**
+     * Actualiza en el motor de alturas los datos de la taza de una posición y de las que tiene encima.
+     * @param p Posición de la taza que cambió.
+     */
+    private void syncHeight(int p) {
+        heights.set(p, cups.cupHeight(p), cups.blockHeight(p), cups.hasLid(p));
+        heights.recompute(p);
     }
 
     /**
-     * Busca una taza en la lista interna mediante su ID.
-     * @param id Identificador a buscar.
-     * @return El objeto Cup correspondiente o null si no existe.
+     * Codifica la tapa de la taza de una posición como la guarda {@link TowerSnapshot}.
+     * @param p Posición de la taza.
+     * @return 1 con tapa, más 2 si la tapa es del color de la taza.
      */
-    private Cup findCup(int id) {
-        for (Cup c : cups) if (c.getId() == id) return c;
-        return null;
+    private byte snapshotFlags(int p) {
+        return (byte) ((cups.hasLid(p) ? 1 : 0) | (cups.lidInCupColor(p) ? 2 : 0));
     }
 
     /**
-     * Recalcula la posición física (X, Y) de cada taza y tapa para reflejar el estado actual de la torre.
+     * Convierte las posiciones de un intercambio en el par de tazas que devuelve {@link #swapToReduce()}.
+     * @param positions Posiciones {i, j}, o null si no hay intercambio.
      */
-    private void reorganize() {
+    private String[][] swapPair(int[] positions) {
+        if (positions == null) return new String[0][0];
+        return new String[][]{
+            {"cup", String.valueOf(cups.id(positions[0]))},
+            {"cup", String.valueOf(cups.id(positions[1]))}
+        };
+    }
+
+    /**
+     * Actualiza el motor de alturas después de intercambiar dos tazas en la lista.
+     * @param i1 Posición de la primera taza.
+     * @param i2 Posición de la segunda taza.
+     */
+    private void swapHeights(int i1, int i2) {
+        heights.set(i1, cups.cupHeight(i1), cups.blockHeight(i1), cups.hasLid(i1));
+        heights.set(i2, cups.cupHeight(i2), cups.blockHeight(i2), cups.hasLid(i2));
+        heights.recompute(Math.min(i1, i2));
+    }
+
+    /**
+     * Calcula la altura que tendría la torre si se tapara solo una parte de las tazas destapadas.
+     * @param open Posiciones de las tazas destapadas, de abajo hacia arriba.
+     * @param openCount Cantidad de posiciones válidas en open.
+     * @param count Cantidad de esas tazas, desde abajo, que recibirían tapa.
+     * @return Altura resultante en unidades.
+     */
+    private int heightWithLids(int[] open, int openCount, int count) {
+        for (int k = 0; k < openCount; k++) {
+            int p = open[k];
+            heights.set(p, cups.cupHeight(p), cups.cupHeight(p) + (k < count ? Lid.HEIGHT : 0), k < count);
+        }
+        heights.recompute(open[0]);
+        return heights.height();
+    }
+
+    /**
+     * Vuelve a cargar todas las tazas en el motor de alturas después de reordenar la torre.
+     */
+    private void rebuildHeights() {
+        heights.clear();
+        for (int p = 0; p < cups.size(); p++) {
+            heights.append(cups.cupHeight(p), cups.blockHeight(p), cups.hasLid(p));
+        }
+        heights.recompute(0);
+    }
+
+    /**
+     * Actualiza en el índice la posición de las tazas desde una posición dada hasta la cima.
+     * @param from Primera posición cuyo índice debe recalcularse.
+     */
+    private void reindex(int from) {
+        for (int p = from; p < cups.size(); p++) {
+            positions.put(cups.id(p), p);
+        }
+    }
+
+    /**
+     * Recalcula la posición física (X, Y) de las tazas y tapas a partir de la cima que le asigna el motor de alturas.
+     * Las tazas por debajo de la posición más baja que cambió conservan su cima, así que se recorre solo
+     * desde ahí, y de esas se mueven solo las que cambiaron de lugar o de tapa: quitar la tapa de la
+     * cima mueve una taza, no toda la torre.
+     * El Canvas pinta encima la última figura que redibuja, y una taza movida taparía con su interior
+     * blanco a las tazas anidadas en ella que no se movieron. Por eso, desde la primera taza que se
+     * mueve o cambia de tapa, todas las de arriba se vuelven a mostrar de abajo hacia arriba.
+     * Mientras la torre no es visible no hay figuras que mover; makeVisible() vuelve a llamar este método.
+     * Visible o no, la posición queda anotada para la próxima copia de snapshot(TowerSnapshot).
+     * Dentro de un lote solo se recuerda la posición más baja y se hace al cerrar el lote.
+     * @param from Posición más baja que cambió.
+     */
+    private void reorganize(int from) {
+        snapshotFrom = Math.min(snapshotFrom, Math.max(0, from));
+        if (!visible) return;
+        layoutFrom = Math.min(layoutFrom, Math.max(0, from));
+        if (batchDepth > 0) {
+            layoutPending = true;
+            return;
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
         int groundY = Y + (maxHeight * SCALE);
-        int currentY = groundY;
+        boolean restack = false;
         
-        for (Cup c : cups) {
-            int blockHeightPx = c.totalHeight() * SCALE;
-            currentY -= blockHeightPx;
+        for (int p = layoutFrom; p < cups.size(); p++) {
+            int id = cups.id(p);
+            Cup c = shapes.get(id);
+            boolean changed = c == null;
+            if (c == null) {
+                c = new Cup(id, cups.cupHeight(p), cups.width(p), randomColor(id));
+                shapes.put(id, c);
+            }
+            changed |= syncLid(c, p);
+            int currentY = groundY - heights.top(p) * SCALE;
             
-            int freeSpacePx = (this.width - c.getWidth()) * SCALE;
+            int freeSpacePx = (this.width - cups.width(p)) * SCALE;
             int centeredX = X + (freeSpacePx / 2);
             
-            c.setPosition(centeredX, currentY);
-            
-            if (visible) {
-                c.show();
+            if (changed || !c.isAt(centeredX, currentY)) {
+                c.setPosition(centeredX, currentY);
+                positionUpdates++;
+                restack = true;
             }
+            if (restack) c.show();
         }
+        layoutFrom = Integer.MAX_VALUE;
+        if (metrics != null) metrics.record(TowerMetrics.REORGANIZE, TowerStatus.OK, System.nanoTime() - start);
     }
 
     /**
-     * Dibuja los bordes laterales y la base de la torre.
+     * Ajusta la tapa de la taza gráfica al estado del almacén.
+     * @param c Taza gráfica.
+     * @param p Posición de la taza.
+     * @return true si la tapa se puso o se quitó.
      */
-    private void drawFrame() {
-        int hPx = maxHeight * SCALE;
-        int wPx = width * SCALE;
-        leftBorder = createRect(X, Y, hPx, 2);
-        rightBorder = createRect(X + wPx, Y, hPx, 2);
-        base = createRect(X, Y + hPx, 2, wPx + 2);
+    private boolean syncLid(Cup c, int p) {
+        if (cups.hasLid(p) && !c.hasLid()) {
+            c.putLid(new Lid(c.getId(), cups.width(p), cups.lidInCupColor(p) ? c.getColor() : "black"));
+            return true;
+        } else if (!cups.hasLid(p) && c.hasLid()) {
+            c.removeLid();
+            return true;
+        }
+        return false;
     }
 
     /**
-     * Método auxiliar para crear, posicionar y mostrar un rectángulo negro.
+     * Retira del lienzo la taza gráfica de un identificador, si existe.
+     * Mientras la torre no es visible no hay figuras, así que ni se consulta el mapa.
+     * @param id Identificador de la taza.
      */
-    private Rectangle createRect(int x, int y, int h, int w) {
-        Rectangle r = new Rectangle();
-        r.changeSize(h, w);
-        r.changeColor("black");
-        r.moveHorizontal(x);
-        r.moveVertical(y);
-        r.makeVisible();
-        return r;
+    private void hideShape(int id) {
+        if (!visible) return;
+        Cup c = shapes.remove(id);
+        if (c != null) c.hide();
     }
 
     /**
-     * Dibuja las marcas de nivel horizontales dentro de la torre.
+     * Registra el resultado de la última operación.
+     * @param status Resultado de la operación.
+     * @return El mismo resultado, para devolverlo desde la operación.
      */
-    private void drawMarks() {
-        int baseY = Y + (maxHeight * SCALE);
-        for (int i = 1; i <= maxHeight; i++) {
-            marks.add(createRect(X, baseY - (i * SCALE), 1, width * SCALE));
+    private TowerStatus done(TowerStatus status) {
+        lastStatus = status;
+        if (operation >= 0) {
+            if (metrics != null) metrics.record(operation, status, System.nanoTime() - operationStart);
+            operation = -1;
         }
+        return status;
     }
 
     /**
-     * Elimina visualmente el marco y las marcas de la torre del Canvas.
+     * Marca el inicio de una operación medida; done() registra su duración y su resultado.
+     * No hace nada sin métricas ni al deshacer o rehacer, que no cuentan como operaciones nuevas.
+     * @param op Operación, una de las constantes de {@link TowerMetrics}.
      */
-    private void hideFrame() {
-        if (leftBorder != null) leftBorder.makeInvisible();
-        if (rightBorder != null) rightBorder.makeInvisible();
-        if (base != null) base.makeInvisible();
-        for (Rectangle r : marks) r.makeInvisible();
-        marks.clear();
+    private void begin(int op) {
+        if (metrics != null && !replaying) {
+            operation = op;
+            operationStart = System.nanoTime();
+        }
     }
 
     /**
      * Gestiona la notificación de errores al usuario y actualiza el estado de la última operación.
+     * @param status Resultado de la operación fallida.
      * @param msg Mensaje de error a mostrar.
+     * @return El mismo resultado, para devolverlo desde la operación.
      */
-    private void error(String msg) {
-        lastOpOk = false;
-        if (visible) JOptionPane.showMessageDialog(null, msg);
+    private TowerStatus error(TowerStatus status, String msg) {
+        if (visible) view.showMessage(msg);
+        return done(status);
     }
 
     /**
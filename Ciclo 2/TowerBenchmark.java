@@ -0,0 +1,417 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Mide el tiempo de las operaciones costosas de la torre con muchas tazas.
+ * Se ejecuta desde la línea de comandos: java TowerBenchmark [n]
+ * Con java TowerBenchmark operaciones [n] mide cada operación pública de la torre, sin interfaz gráfica,
+ * en torres de 10 hasta n tazas (por defecto 1000000), reportando nanosegundos y bytes asignados por operación.
+ * Con java TowerBenchmark granja [torres] ejecuta registros aleatorios de comandos en una TowerFarm con 1, 2, 4...
+ * hilos hasta los núcleos disponibles, reportando comandos por segundo y la aceleración respecto a un hilo.
+ * Con java TowerBenchmark intercambio [n] compara bestSwapToReduce secuencial con la búsqueda en paralelo
+ * en una torre de n tazas desordenadas, con 1, 2, 4... hilos hasta los núcleos disponibles.
+ * Con java TowerBenchmark imagen [torres] dibuja fuera de pantalla torres de 70 tazas con TowerImage.renderAll, con 1, 2, 4...
+ * hilos hasta los núcleos disponibles, reportando imágenes por segundo y la aceleración respecto a un hilo.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int ROUNDS = 5;
+    private static final int FAST_REPS = 10_000;
+    private static final int MAX_SWAP_TO_REDUCE = 10_000;
+    private static final int FARM_SCRIPT_LENGTH = 20_000;
+    private static long sink;
+
+    /**
+     * Operación medida; round es el número de la ronda y k el de la repetición dentro de ella.
+     */
+    private interface Operation {
+        void run(Tower tower, int round, int k);
+    }
+
+    /**
+     * Punto de entrada del benchmark.
+     * @param args Opcionalmente, la cantidad de tazas (por defecto 1000000).
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("operaciones")) {
+            operations(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("intercambio")) {
+            swapSearch(args.length > 1 ? Integer.parseInt(args[1]) : 300);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("granja")) {
+            farm(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("imagen")) {
+            images(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+            return;
+        }
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int h = Integer.MAX_VALUE / 2;
+        for (int round = 1; round <= 5; round++) {
+            long start = System.nanoTime();
+            Tower tower = Tower.forHeight(n, h);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("forHeight(%d, %d) ronda %d: %.1f ms, ok=%b, altura=%d%n",
+                n, h, round, elapsed / 1e6, tower.ok(), tower.height());
+        }
+        compareStorage(n);
+    }
+
+    /**
+     * Mide cada operación de la torre en tamaños de 10 hasta maxN tazas, multiplicando por 10.
+     * Las operaciones que cambian la torre se deshacen fuera del tiempo medido (o se aplican en pares
+     * que la dejan igual), para que todas las rondas midan la misma torre.
+     * @param maxN Cantidad máxima de tazas.
+     */
+    private static void operations(int maxN) {
+        System.out.printf("%-14s %9s %14s %12s%n", "operación", "tazas", "ns/op", "bytes/op");
+        for (int n = 10; n <= maxN; n *= 10) {
+            int[] order = buildOrder(n);
+            int linearReps = Math.max(1, Math.min(1000, 1_000_000 / n));
+            Tower tower = build(order);
+            measure("height", n, FAST_REPS, () -> tower, null, (t, r, k) -> sink += t.height(), null);
+            measure("lidedCups", n, linearReps, () -> tower, null, (t, r, k) -> sink += t.lidedCups().length, null);
+            measure("stackingItems", n, linearReps, () -> tower, null, (t, r, k) -> sink += t.stackingItems().length, null);
+            measure("pushCup", n, FAST_REPS, () -> tower, null, (t, r, k) -> t.pushCup(FAST_REPS - k),
+                (t, r) -> popCups(t, FAST_REPS));
+            measure("popCup", n, FAST_REPS, () -> tower, (t, r) -> pushSmallCups(t),
+                (t, r, k) -> t.popCup(), null);
+            int[] swaps = randomIds(n, 2 * linearReps);
+            measure("swap", n, 2 * linearReps, () -> tower, null,
+                (t, r, k) -> t.swap(swaps[k & ~1], swaps[k | 1]), null);
+            measure("reverseTower", n, 2 * linearReps, () -> tower, null, (t, r, k) -> t.reverseTower(), null);
+            if (n <= MAX_SWAP_TO_REDUCE) {
+                measure("swapToReduce", n, 1, () -> tower, null, (t, r, k) -> sink += t.swapToReduce().length, null);
+            }
+            int removals = Math.max(1, Math.min(linearReps, n / 16));
+            int firstVictim = n / 4;
+            measure("removeCup", n, removals, () -> tower, null,
+                (t, r, k) -> t.removeCup(order[firstVictim + r * removals + k]),
+                (t, r) -> pushCups(t, order, firstVictim + r * removals, removals));
+            measure("orderTower", n, 1, () -> tower, (t, r) -> t.reverseTower(), (t, r, k) -> t.orderTower(), null);
+            measure("cover", n, 1, () -> build(order), null, (t, r, k) -> t.cover(), null);
+        }
+        System.out.println("(" + sink + ")");
+    }
+
+    /**
+     * Ejecuta una operación en rondas de calentamiento y de medición, e imprime el promedio por operación.
+     * @param name Nombre de la operación.
+     * @param n Cantidad de tazas de la torre.
+     * @param reps Repeticiones medidas por ronda.
+     * @param towers Entrega la torre de cada ronda (la misma o una nueva).
+     * @param before Preparación sin medir antes de cada ronda, que recibe el número de ronda, o null.
+     * @param op Operación medida.
+     * @param after Limpieza sin medir después de cada ronda, que recibe el número de ronda, o null.
+     */
+    private static void measure(String name, int n, int reps, Supplier<Tower> towers,
+                                ObjIntConsumer<Tower> before, Operation op, ObjIntConsumer<Tower> after) {
+        long nanos = 0;
+        long bytes = 0;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            Tower tower = towers.get();
+            if (before != null) before.accept(tower, round);
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int k = 0; k < reps; k++) {
+                op.run(tower, round, k);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - startBytes;
+            if (after != null) after.accept(tower, round);
+            if (round >= WARMUP) {
+                nanos += elapsed;
+                bytes += allocated;
+            }
+        }
+        long ops = (long) reps * ROUNDS;
+        System.out.printf("%-14s %9d %14.1f %12.1f%n", name, n, (double) nanos / ops, (double) bytes / ops);
+    }
+
+    /**
+     * Calcula un orden de n tazas cuya altura cabe holgadamente en un int, tomado de forHeight.
+     * Los identificadores se corren en FAST_REPS para dejar libres las tazas pequeñas 1..FAST_REPS,
+     * que se apilan y se quitan en la cima al medir pushCup y popCup.
+     * @param n Cantidad de tazas.
+     * @return Identificadores de abajo hacia arriba.
+     */
+    private static int[] buildOrder(int n) {
+        int h = (int) Math.min((long) n * n, Integer.MAX_VALUE / 8);
+        String[][] items = Tower.forHeight(n, h).stackingItems();
+        int[] order = new int[items.length];
+        for (int k = 0; k < items.length; k++) {
+            order[k] = FAST_REPS + Integer.parseInt(items[k][1]);
+        }
+        return order;
+    }
+
+    /**
+     * Construye una torre invisible con las tazas en el orden dado y tapa una de cada tres tazas
+     * de la parte apilada en orden ascendente. Las anidadas quedan sin tapa: tapar una obligaría
+     * a todas las de encima a apilarse sobre ella y la altura ya no cabría en un int.
+     * @param order Identificadores de abajo hacia arriba.
+     * @return La torre construida.
+     */
+    private static Tower build(int[] order) {
+        Tower tower = new Tower(10, Integer.MAX_VALUE / 2);
+        boolean ascending = true;
+        for (int k = 0; k < order.length; k++) {
+            tower.pushCup(order[k]);
+            ascending = ascending && k + 1 < order.length && order[k] < order[k + 1];
+            if (ascending && k % 3 == 2) tower.pushLid(order[k]);
+        }
+        return tower;
+    }
+
+    /**
+     * Apila en la cima las tazas pequeñas reservadas, de mayor a menor para que queden anidadas.
+     */
+    private static void pushSmallCups(Tower tower) {
+        for (int k = 0; k < FAST_REPS; k++) {
+            tower.pushCup(FAST_REPS - k);
+        }
+    }
+
+    /**
+     * Vuelve a apilar en la cima las tazas que quitó una ronda de removeCup.
+     * Cada ronda quita tazas distintas, tomadas desde la cuarta parte de la torre hacia arriba.
+     */
+    private static void pushCups(Tower tower, int[] order, int first, int count) {
+        for (int k = 0; k < count; k++) {
+            tower.pushCup(order[first + k]);
+        }
+    }
+
+    /**
+     * Quita varias tazas de la cima.
+     */
+    private static void popCups(Tower tower, int count) {
+        for (int k = 0; k < count; k++) {
+            tower.popCup();
+        }
+    }
+
+    /**
+     * Mide la búsqueda del mejor intercambio, secuencial y en paralelo, sobre la misma torre.
+     * @param n Cantidad de tazas.
+     */
+    private static void swapSearch(int n) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= n; id++) ids.add(id);
+        Collections.shuffle(ids, new Random(42));
+        Tower tower = new Tower(10, Integer.MAX_VALUE / 2);
+        for (int id : ids) tower.pushCup(id);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("bestSwapToReduce con %d tazas, %d núcleos%n", n, cores);
+        System.out.printf("%-12s %12s %10s%n", "modo", "ms", "acelera");
+        double base = bestTime(() -> tower.bestSwapToReduce());
+        System.out.printf("%-12s %12.1f %9.2fx%n", "secuencial", base, 1.0);
+        for (int threads = 1; ; threads = Math.min(cores, threads * 2)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double time = bestTime(() -> tower.bestSwapToReduce(pool));
+            pool.shutdown();
+            System.out.printf("%-12s %12.1f %9.2fx%n", threads + " hilos", time, base / time);
+            if (threads == cores) break;
+        }
+    }
+
+    /**
+     * Ejecuta una búsqueda varias veces y devuelve el menor tiempo, en milisegundos.
+     */
+    private static double bestTime(Supplier<String[][]> search) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += search.get().length;
+            double elapsed = (System.nanoTime() - start) / 1e6;
+            if (round >= WARMUP) best = Math.min(best, elapsed);
+        }
+        return best;
+    }
+
+    /**
+     * Ejecuta los mismos registros aleatorios en granjas con cada vez más hilos.
+     * @param towers Cantidad de torres de cada granja.
+     */
+    private static void farm(int towers) {
+        byte[][] scripts = new byte[towers][];
+        Random random = new Random(42);
+        for (int t = 0; t < towers; t++) {
+            scripts[t] = randomScript(random, 50 + random.nextInt(200));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d torres, %d comandos por torre, %d núcleos%n", towers, FARM_SCRIPT_LENGTH, cores);
+        System.out.printf("%6s %14s %10s%n", "hilos", "comandos/s", "acelera");
+        double base = 0;
+        for (int threads = 1; ; threads = Math.min(cores, threads * 2)) {
+            double best = 0;
+            for (int round = 0; round < WARMUP + ROUNDS; round++) {
+                TowerFarm farm = new TowerFarm(threads);
+                for (byte[] script : scripts) farm.add(10, 1_000_000, script);
+                try {
+                    farm.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (round >= WARMUP) best = Math.max(best, farm.commandsPerSecond());
+            }
+            if (threads == 1) base = best;
+            System.out.printf("%6d %14.0f %9.2fx%n", threads, best, best / base);
+            if (threads == cores) break;
+        }
+    }
+
+    /**
+     * Dibuja las mismas torres con TowerImage.renderAll en grupos de hilos cada vez más grandes.
+     * Las torres tienen las tazas 1..70 en orden aleatorio y algunas tapas, y una altura máxima
+     * de 5000, así que cada imagen se comprime a 800 píxeles de alto.
+     * @param count Cantidad de torres.
+     */
+    private static void images(int count) {
+        List<Tower> towers = new ArrayList<>();
+        Random random = new Random(42);
+        for (int t = 0; t < count; t++) {
+            Tower tower = new Tower(10, 5000);
+            List<Integer> ids = new ArrayList<>();
+            for (int id = 1; id <= 70; id++) ids.add(id);
+            Collections.shuffle(ids, random);
+            for (int id : ids) {
+                tower.pushCup(id);
+                if (random.nextInt(4) == 0) tower.pushLid(id);
+            }
+            towers.add(tower);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d torres de 70 tazas, %d núcleos%n", count, cores);
+        System.out.printf("%6s %14s %10s%n", "hilos", "imágenes/s", "acelera");
+        double base = 0;
+        for (int threads = 1; ; threads = Math.min(cores, threads * 2)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double best = 0;
+            for (int round = 0; round < WARMUP + ROUNDS; round++) {
+                long start = System.nanoTime();
+                sink += TowerImage.renderAll(towers, TowerImage.TILE_HEIGHT, pool).length;
+                double perSecond = count / ((System.nanoTime() - start) / 1e9);
+                if (round >= WARMUP) best = Math.max(best, perSecond);
+            }
+            pool.shutdown();
+            if (threads == 1) base = best;
+            System.out.printf("%6d %14.0f %9.2fx%n", threads, best, best / base);
+            if (threads == cores) break;
+        }
+    }
+
+    /**
+     * Genera un registro de comandos al azar sobre tazas de 1 a maxId, en su mayoría válidos.
+     */
+    private static byte[] randomScript(Random random, int maxId) {
+        String[] fixed = {"popCup", "popLid", "cover", "orderTower", "reverseTower"};
+        StringBuilder script = new StringBuilder();
+        for (int k = 0; k < FARM_SCRIPT_LENGTH; k++) {
+            int id = 1 + random.nextInt(maxId);
+            int kind = random.nextInt(20);
+            if (kind < 8) {
+                script.append("pushCup ").append(id);
+            } else if (kind < 11) {
+                script.append("removeCup ").append(id);
+            } else if (kind < 14) {
+                script.append("pushLid ").append(id);
+            } else if (kind < 16) {
+                script.append("removeLid ").append(id);
+            } else if (kind < 18) {
+                script.append("swap cup ").append(id).append(" cup ").append(1 + random.nextInt(maxId));
+            } else {
+                script.append(fixed[random.nextInt(fixed.length)]);
+            }
+            script.append('\n');
+        }
+        return script.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Genera identificadores aleatorios, con semilla fija, de las n tazas de la torre.
+     */
+    private static int[] randomIds(int n, int count) {
+        Random random = new Random(42);
+        int[] ids = new int[count];
+        for (int k = 0; k < count; k++) {
+            ids[k] = FAST_REPS + 1 + random.nextInt(n);
+        }
+        return ids;
+    }
+
+    /**
+     * Obtiene los bytes asignados hasta ahora por el hilo actual, o 0 si la JVM no lo permite.
+     * @return Bytes asignados.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Compara la memoria y la velocidad de recorrido de una lista de objetos Cup contra CupStore.
+     * @param n Cantidad de tazas.
+     */
+    private static void compareStorage(int n) {
+        long before = usedMemory();
+        List<Cup> list = new ArrayList<>();
+        for (int k = 1; k <= n; k++) {
+            Cup c = new Cup(k, 2 * k - 1, 10, "red");
+            if (k % 3 == 0) c.putLid(new Lid(k, 10, "black"));
+            list.add(c);
+        }
+        long listBytes = usedMemory() - before;
+
+        before = usedMemory();
+        CupStore store = new CupStore();
+        for (int k = 1; k <= n; k++) {
+            store.add(k, 2 * k - 1, 10);
+            store.setLid(k - 1, k % 3 == 0, false);
+        }
+        long storeBytes = usedMemory() - before;
+        System.out.printf("memoria: List<Cup> %.1f bytes/taza, CupStore %.1f bytes/taza%n",
+            (double) listBytes / n, (double) storeBytes / n);
+
+        for (int round = 1; round <= 5; round++) {
+            long start = System.nanoTime();
+            long listSum = 0;
+            for (Cup c : list) {
+                if (c.hasLid()) listSum += c.totalHeight();
+            }
+            long middle = System.nanoTime();
+            long storeSum = 0;
+            for (int p = 0; p < store.size(); p++) {
+                if (store.hasLid(p)) storeSum += store.blockHeight(p);
+            }
+            long end = System.nanoTime();
+            System.out.printf("recorrido ronda %d: List<Cup> %.2f ms, CupStore %.2f ms (%b)%n",
+                round, (middle - start) / 1e6, (end - middle) / 1e6, listSum == storeSum);
+        }
+    }
+
+    /**
+     * Calcula la memoria ocupada del heap después de pedir una recolección de basura.
+     * @return Bytes en uso.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
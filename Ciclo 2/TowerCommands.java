@@ -0,0 +1,329 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Ejecuta sobre una torre un registro de comandos en texto, una línea por comando,
+ * con los mismos nombres de los métodos de Tower: "pushCup 5", "pushLid 5", "popCup",
+ * "removeCup 3", "popLid", "removeLid 3", "swap cup 1 cup 2", "cover", "orderTower",
+ * "reverseTower", "swapToReduce", "makeVisible" y "makeInvisible".
+ *
+ * Los comandos se leen directamente de los bytes (de un archivo mapeado en memoria o de un
+ * canal) sin crear un String por palabra. Por cada comando se escribe una línea "true" o
+ * "false" con el valor de ok() después de ejecutarlo; un comando desconocido o mal escrito
+ * da "false", y swapToReduce, que solo consulta la torre y no cambia ok(), siempre da "true". Las líneas vacías y las que empiezan por '#' se ignoran.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerCommands {
+
+    private static final int CHUNK = 64 << 20;
+    private static final byte[] PUSH_CUP = bytes("pushCup");
+    private static final byte[] POP_CUP = bytes("popCup");
+    private static final byte[] REMOVE_CUP = bytes("removeCup");
+    private static final byte[] PUSH_LID = bytes("pushLid");
+    private static final byte[] POP_LID = bytes("popLid");
+    private static final byte[] REMOVE_LID = bytes("removeLid");
+    private static final byte[] SWAP = bytes("swap");
+    private static final byte[] CUP = bytes("cup");
+    private static final byte[] COVER = bytes("cover");
+    private static final byte[] ORDER_TOWER = bytes("orderTower");
+    private static final byte[] REVERSE_TOWER = bytes("reverseTower");
+    private static final byte[] SWAP_TO_REDUCE = bytes("swapToReduce");
+    private static final byte[] MAKE_VISIBLE = bytes("makeVisible");
+    private static final byte[] MAKE_INVISIBLE = bytes("makeInvisible");
+    private static final byte[] TRUE = bytes("true\n");
+    private static final byte[] FALSE = bytes("false\n");
+
+    private Tower tower;
+    private byte[] out;
+    private int outCount;
+    private OutputStream sink;
+    private ByteBuffer line;
+    private int cursor;
+    private int lineEnd;
+    private int tokenStart;
+    private int tokenEnd;
+    private long executed;
+    private long failed;
+
+    /**
+     * Constructor que asocia el intérprete a una torre.
+     * @param tower Torre sobre la que se ejecutan los comandos.
+     */
+    public TowerCommands(Tower tower) {
+        this.tower = tower;
+        this.out = new byte[1 << 16];
+    }
+
+    /**
+     * Ejecuta todos los comandos de un archivo, mapeándolo en memoria por bloques.
+     * @param file Archivo con un comando por línea.
+     * @param results Destino de los resultados, una línea por comando.
+     * @return Cantidad de comandos ejecutados.
+     * @throws IOException Si no se puede leer el archivo o escribir los resultados.
+     */
+    public long run(Path file, OutputStream results) throws IOException {
+        begin(results);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            tower.beginBatch();
+            try {
+                while (position < size) {
+                    long length = Math.min(CHUNK, size - position);
+                    boolean last = position + length == size;
+                    ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    execute(chunk, last);
+                    if (chunk.position() == 0 && !last) {
+                        throw new IOException("Línea de comando demasiado larga en la posición " + position);
+                    }
+                    position += chunk.position();
+                }
+            } finally {
+                tower.commit();
+            }
+        }
+        flush();
+        return executed;
+    }
+
+    /**
+     * Ejecuta todos los comandos que lleguen por un canal hasta que se cierre.
+     * @param input Canal con un comando por línea.
+     * @param results Destino de los resultados, una línea por comando.
+     * @return Cantidad de comandos ejecutados.
+     * @throws IOException Si no se puede leer el canal o escribir los resultados.
+     */
+    public long run(ReadableByteChannel input, OutputStream results) throws IOException {
+        begin(results);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        tower.beginBatch();
+        try {
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                execute(buffer, false);
+                if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                    buffer = grow(buffer);
+                } else {
+                    buffer.compact();
+                }
+            }
+            buffer.flip();
+            execute(buffer, true);
+        } finally {
+            tower.commit();
+        }
+        flush();
+        return executed;
+    }
+
+    /**
+     * Ejecuta todos los comandos de un búfer ya cargado en memoria, desde su posición hasta su límite.
+     * @param commands Búfer con un comando por línea; su posición queda al final.
+     * @param results Destino de los resultados, una línea por comando.
+     * @return Cantidad de comandos ejecutados.
+     * @throws IOException Si no se pueden escribir los resultados.
+     */
+    public long run(ByteBuffer commands, OutputStream results) throws IOException {
+        begin(results);
+        tower.beginBatch();
+        try {
+            execute(commands, true);
+        } finally {
+            tower.commit();
+        }
+        flush();
+        return executed;
+    }
+
+    /**
+     * Obtiene cuántos comandos de la última ejecución dieron "false".
+     * @return Cantidad de comandos fallidos.
+     */
+    public long failed() {
+        return failed;
+    }
+
+    /**
+     * Prepara los contadores y el destino de resultados antes de una ejecución.
+     */
+    private void begin(OutputStream results) {
+        sink = results;
+        outCount = 0;
+        executed = 0;
+        failed = 0;
+    }
+
+    /**
+     * Ejecuta las líneas completas del búfer, desde su posición hasta su límite.
+     * Deja la posición justo después de la última línea completa; si es el final de la entrada,
+     * también ejecuta la última línea aunque no termine en salto de línea.
+     */
+    private void execute(ByteBuffer buffer, boolean endOfInput) throws IOException {
+        line = buffer;
+        int start = buffer.position();
+        int limit = buffer.limit();
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                executeLine(start, i);
+                start = i + 1;
+            }
+        }
+        if (endOfInput && start < limit) {
+            executeLine(start, limit);
+            start = limit;
+        }
+        buffer.position(start);
+    }
+
+    /**
+     * Interpreta y ejecuta una línea ubicada entre dos posiciones del búfer.
+     */
+    private void executeLine(int start, int end) throws IOException {
+        cursor = start;
+        lineEnd = end;
+        if (!nextToken() || line.get(tokenStart) == '#') return;
+        boolean ok = dispatch();
+        if (ok && nextToken()) ok = false;
+        executed++;
+        if (!ok) failed++;
+        write(ok ? TRUE : FALSE);
+    }
+
+    /**
+     * Llama al método de la torre que corresponde al comando leído.
+     * @return El valor de ok() después del comando, true para swapToReduce, o false si el comando no es válido.
+     */
+    private boolean dispatch() {
+        if (matches(PUSH_CUP)) {
+            if (!nextToken() || !isNumber()) return false;
+            tower.pushCup(number());
+        } else if (matches(POP_CUP)) {
+            tower.popCup();
+        } else if (matches(REMOVE_CUP)) {
+            if (!nextToken() || !isNumber()) return false;
+            tower.removeCup(number());
+        } else if (matches(PUSH_LID)) {
+            if (!nextToken() || !isNumber()) return false;
+            tower.pushLid(number());
+        } else if (matches(POP_LID)) {
+            tower.popLid();
+        } else if (matches(REMOVE_LID)) {
+            if (!nextToken() || !isNumber()) return false;
+            tower.removeLid(number());
+        } else if (matches(SWAP)) {
+            if (!nextToken() || !matches(CUP) || !nextToken() || !isNumber()) return false;
+            int first = number();
+            if (!nextToken() || !matches(CUP) || !nextToken() || !isNumber()) return false;
+            tower.swap(first, number());
+        } else if (matches(COVER)) {
+            tower.cover();
+        } else if (matches(ORDER_TOWER)) {
+            tower.orderTower();
+        } else if (matches(REVERSE_TOWER)) {
+            tower.reverseTower();
+        } else if (matches(SWAP_TO_REDUCE)) {
+            tower.swapToReduce();
+            return true;
+        } else if (matches(MAKE_VISIBLE)) {
+            tower.makeVisible();
+        } else if (matches(MAKE_INVISIBLE)) {
+            tower.makeInvisible();
+        } else {
+            return false;
+        }
+        return tower.ok();
+    }
+
+    /**
+     * Avanza hasta la siguiente palabra de la línea, separada por espacios, tabulaciones o '\r'.
+     * @return true si se encontró una palabra.
+     */
+    private boolean nextToken() {
+        while (cursor < lineEnd && isBlank(line.get(cursor))) cursor++;
+        if (cursor >= lineEnd) return false;
+        tokenStart = cursor;
+        while (cursor < lineEnd && !isBlank(line.get(cursor))) cursor++;
+        tokenEnd = cursor;
+        return true;
+    }
+
+    /**
+     * Indica si la palabra actual es igual a una palabra clave.
+     */
+    private boolean matches(byte[] keyword) {
+        if (tokenEnd - tokenStart != keyword.length) return false;
+        for (int i = 0; i < keyword.length; i++) {
+            if (line.get(tokenStart + i) != keyword[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indica si la palabra actual es un entero con signo opcional que cabe en un int.
+     */
+    private boolean isNumber() {
+        int i = tokenStart;
+        if (line.get(i) == '-') i++;
+        if (i == tokenEnd || tokenEnd - i > 10) return false;
+        long value = 0;
+        for (; i < tokenEnd; i++) {
+            byte b = line.get(i);
+            if (b < '0' || b > '9') return false;
+            value = value * 10 + (b - '0');
+        }
+        return value <= Integer.MAX_VALUE + 1L && (value <= Integer.MAX_VALUE || line.get(tokenStart) == '-');
+    }
+
+    /**
+     * Convierte la palabra actual, ya validada con isNumber(), en un entero.
+     */
+    private int number() {
+        int i = tokenStart;
+        boolean negative = line.get(i) == '-';
+        if (negative) i++;
+        int value = 0;
+        for (; i < tokenEnd; i++) {
+            value = value * 10 - (line.get(i) - '0');
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Agrega bytes al búfer de resultados, vaciándolo cuando se llena.
+     */
+    private void write(byte[] bytes) throws IOException {
+        if (outCount + bytes.length > out.length) flush();
+        System.arraycopy(bytes, 0, out, outCount, bytes.length);
+        outCount += bytes.length;
+    }
+
+    /**
+     * Escribe en el destino los resultados acumulados.
+     */
+    private void flush() throws IOException {
+        sink.write(out, 0, outCount);
+        sink.flush();
+        outCount = 0;
+    }
+
+    /**
+     * Crea un búfer del doble de tamaño con el contenido pendiente, para líneas más largas que el búfer.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
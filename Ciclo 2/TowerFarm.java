@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ejecuta muchas torres independientes en paralelo, cada una con su propio registro de
+ * comandos en el formato de {@link TowerCommands}, y reúne sus resultados.
+ *
+ * Las torres se reparten en un ForkJoinPool partiendo la lista por mitades hasta llegar a una
+ * torre por tarea; los hilos que terminan antes roban tareas de los demás, así que registros de
+ * distinto largo no dejan núcleos ociosos. Cada torre se crea, se usa y se resume dentro de una
+ * sola tarea, sin candados ni objetos compartidos, y como las torres no comparten nada el
+ * rendimiento crece con la cantidad de núcleos hasta que se llena la memoria.
+ *
+ * De cada torre se guarda ok() después de su último comando, height(), lidedCups() y cuántos
+ * comandos fallaron; de la ejecución completa, los comandos ejecutados y el tiempo que tomó.
+ * Los registros no deben usar makeVisible, porque el lienzo es uno solo para todos los hilos.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerFarm {
+
+    private final int parallelism;
+    private final List<Job> jobs;
+    private boolean[] ok;
+    private int[] heights;
+    private int[][] lidedCups;
+    private long[] failures;
+    private long commands;
+    private long elapsedNanos;
+
+    /**
+     * Constructor que crea una granja que usa todos los núcleos disponibles.
+     */
+    public TowerFarm() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor que crea una granja con una cantidad fija de hilos.
+     * @param parallelism Cantidad de hilos que ejecutan torres a la vez.
+     */
+    public TowerFarm(int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("La cantidad de hilos debe ser positiva");
+        this.parallelism = parallelism;
+        this.jobs = new ArrayList<>();
+    }
+
+    /**
+     * Agrega una torre vacía que ejecutará los comandos de un arreglo de bytes.
+     * @param width Ancho de la torre.
+     * @param maxHeight Altura máxima permitida.
+     * @param script Comandos, uno por línea.
+     * @return Número de la torre dentro de la granja.
+     */
+    public int add(int width, int maxHeight, byte[] script) {
+        jobs.add(new Job(width, maxHeight, script, null));
+        return jobs.size() - 1;
+    }
+
+    /**
+     * Agrega una torre vacía que ejecutará los comandos de un archivo.
+     * @param width Ancho de la torre.
+     * @param maxHeight Altura máxima permitida.
+     * @param script Archivo con los comandos, uno por línea.
+     * @return Número de la torre dentro de la granja.
+     */
+    public int add(int width, int maxHeight, Path script) {
+        jobs.add(new Job(width, maxHeight, null, script));
+        return jobs.size() - 1;
+    }
+
+    /**
+     * Obtiene la cantidad de torres de la granja.
+     * @return Número de torres.
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Ejecuta el registro de cada torre en paralelo y guarda los resultados.
+     * @return Cantidad total de comandos ejecutados.
+     * @throws IOException Si no se puede leer el archivo de alguna torre.
+     */
+    public long run() throws IOException {
+        int n = jobs.size();
+        ok = new boolean[n];
+        heights = new int[n];
+        lidedCups = new int[n][];
+        failures = new long[n];
+        long[] executed = new long[n];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(new Shard(0, n, executed));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            pool.shutdown();
+        }
+        commands = 0;
+        for (long count : executed) commands += count;
+        return commands;
+    }
+
+    /**
+     * Indica si el último comando de una torre fue exitoso.
+     * @param tower Número de la torre.
+     * @return El valor de ok() al terminar su registro.
+     */
+    public boolean ok(int tower) {
+        return ok[tower];
+    }
+
+    /**
+     * Obtiene la altura final de una torre.
+     * @param tower Número de la torre.
+     * @return Altura total en unidades.
+     */
+    public int height(int tower) {
+        return heights[tower];
+    }
+
+    /**
+     * Obtiene las tazas tapadas al final del registro de una torre.
+     * @param tower Número de la torre.
+     * @return Arreglo de enteros con los IDs ordenados.
+     */
+    public int[] lidedCups(int tower) {
+        return lidedCups[tower].clone();
+    }
+
+    /**
+     * Obtiene cuántos comandos del registro de una torre fallaron.
+     * @param tower Número de la torre.
+     * @return Cantidad de comandos que dieron "false".
+     */
+    public long failures(int tower) {
+        return failures[tower];
+    }
+
+    /**
+     * Obtiene la cantidad de comandos ejecutados por todas las torres en la última ejecución.
+     * @return Total de comandos.
+     */
+    public long commands() {
+        return commands;
+    }
+
+    /**
+     * Obtiene la duración de la última ejecución.
+     * @return Tiempo en nanosegundos.
+     */
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Obtiene el rendimiento de la última ejecución.
+     * @return Comandos por segundo entre todas las torres.
+     */
+    public double commandsPerSecond() {
+        return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Ejecuta una torre de principio a fin dentro del hilo actual y guarda su resumen.
+     */
+    private long runTower(int index) throws IOException {
+        Job job = jobs.get(index);
+        Tower tower = new Tower(job.width, job.maxHeight);
+        TowerCommands interpreter = new TowerCommands(tower);
+        OutputStream results = OutputStream.nullOutputStream();
+        long executed = job.file != null ? interpreter.run(job.file, results)
+            : interpreter.run(ByteBuffer.wrap(job.script), results);
+        ok[index] = tower.ok();
+        heights[index] = tower.height();
+        lidedCups[index] = tower.lidedCups();
+        failures[index] = interpreter.failed();
+        return executed;
+    }
+
+    /**
+     * Tarea que ejecuta un rango de torres, partiéndolo por mitades hasta dejar una torre por tarea.
+     */
+    private final class Shard extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final long[] executed;
+
+        Shard(int from, int to, long[] executed) {
+            this.from = from;
+            this.to = to;
+            this.executed = executed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Shard(from, mid, executed), new Shard(mid, to, executed));
+                return;
+            }
+            for (int index = from; index < to; index++) {
+                try {
+                    executed[index] = runTower(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Datos de una torre por ejecutar: sus dimensiones y su registro en memoria o en un archivo.
+     */
+    private static final class Job {
+        private final int width;
+        private final int maxHeight;
+        private final byte[] script;
+        private final Path file;
+
+        Job(int width, int maxHeight, byte[] script, Path file) {
+            this.width = width;
+            this.maxHeight = maxHeight;
+            this.script = script;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Muestra en el Canvas una {@link ConcurrentTower} que otros hilos modifican, redibujándola a lo
+ * sumo una vez por cuadro.
+ *
+ * Los hilos del modelo nunca esperan al dibujo: cada modificación publica su propia copia
+ * inmutable de la torre y cuenta en modifications(). En cada cuadro, un Timer de Swing revisa en
+ * el hilo de eventos si ese contador cambió. Si cambió, lee la copia publicada, sin tomar ningún
+ * candado del modelo, y la aplica a una torre visible propia con
+ * {@link Tower#restore(TowerSnapshot)}, que mueve solo las tazas que cambiaron.
+ * Todas las modificaciones de un intervalo quedan así en un único cuadro.
+ *
+ * Las métricas comparan el trabajo del modelo con el de la pantalla: modificaciones mostradas,
+ * cuadros dibujados, modificaciones que no tuvieron cuadro propio y cuadros perdidos porque el
+ * anterior tardó más que el intervalo.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerFrames {
+
+    public static final int DEFAULT_INTERVAL = 16;
+    private final ConcurrentTower model;
+    private final int interval;
+    private Tower display;
+    private Timer timer;
+    private long shown;
+    private long lastTick;
+    private volatile long frames;
+    private volatile long droppedFrames;
+    private volatile long modificationsShown;
+
+    /**
+     * Constructor que redibuja la torre a lo sumo cada 16 ms, unos 60 cuadros por segundo.
+     * @param model Torre que modifican los hilos del modelo.
+     */
+    public TowerFrames(ConcurrentTower model) {
+        this(model, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor con un intervalo entre cuadros a elección.
+     * @param model Torre que modifican los hilos del modelo.
+     * @param interval Milisegundos entre cuadros.
+     */
+    public TowerFrames(ConcurrentTower model, int interval) {
+        if (interval <= 0) throw new IllegalArgumentException("El intervalo debe ser positivo");
+        this.model = model;
+        this.interval = interval;
+    }
+
+    /**
+     * Muestra la torre y empieza a dibujar cuadros. Se puede llamar desde cualquier hilo; el trabajo
+     * se hace en el hilo de eventos. Si la torre es demasiado alta para el Canvas no se muestra nada,
+     * como con {@link Tower#makeVisible()}.
+     */
+    public void start() {
+        SwingUtilities.invokeLater(() -> {
+            if (timer != null) return;
+            shown = model.modifications();
+            display = Tower.fromSnapshot(model.snapshot());
+            display.makeVisible();
+            lastTick = 0;
+            timer = new Timer(interval, e -> frame());
+            timer.setCoalesce(true);
+            timer.start();
+        });
+    }
+
+    /**
+     * Deja de dibujar cuadros y oculta la torre. Se puede llamar desde cualquier hilo.
+     */
+    public void stop() {
+        SwingUtilities.invokeLater(() -> {
+            if (timer == null) return;
+            timer.stop();
+            timer = null;
+            display.makeInvisible();
+            display = null;
+        });
+    }
+
+    /**
+     * Obtiene cuántos cuadros se han dibujado; un intervalo sin modificaciones no dibuja cuadro.
+     * @return Cantidad de cuadros.
+     */
+    public long frames() {
+        return frames;
+    }
+
+    /**
+     * Obtiene cuántos cuadros se perdieron porque un cuadro anterior tardó más que el intervalo.
+     * @return Cantidad de cuadros perdidos.
+     */
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Obtiene cuántas modificaciones del modelo ya están en pantalla.
+     * @return Cantidad de modificaciones mostradas.
+     */
+    public long modificationsShown() {
+        return modificationsShown;
+    }
+
+    /**
+     * Obtiene cuántas modificaciones mostradas no tuvieron un cuadro propio, porque se juntaron
+     * con otras del mismo intervalo.
+     * @return Modificaciones mostradas menos cuadros dibujados.
+     */
+    public long coalescedModifications() {
+        return modificationsShown - frames;
+    }
+
+    /**
+     * Dibuja un cuadro en el hilo de eventos si el modelo cambió desde el anterior.
+     * El contador se lee antes que la copia publicada, que se publica antes de contar, así que la
+     * copia tiene al menos esas modificaciones; las que lleguen después se dibujan en el cuadro siguiente.
+     */
+    private void frame() {
+        if (display == null) return;
+        long now = System.nanoTime();
+        if (lastTick != 0) {
+            long late = (now - lastTick) / (interval * 1_000_000L) - 1;
+            if (late > 0) droppedFrames += late;
+        }
+        lastTick = now;
+        long current = model.modifications();
+        if (current == shown) return;
+        display.restore(model.snapshot());
+        modificationsShown += current - shown;
+        shown = current;
+        frames++;
+    }
+}
@@ -0,0 +1,197 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+
+/**
+ * Dibuja torres fuera de pantalla, en imágenes o en PNG, sin el Canvas ni una ventana de Swing,
+ * así que funciona en servidores sin pantalla (java.awt.headless=true).
+ *
+ * Los rectángulos salen de {@link Tower#paint(TowerPainter, boolean)}, con la misma geometría y
+ * colores que en el lienzo, y se rellenan directamente sobre los píxeles de la imagen en vez de
+ * pasar por Graphics2D. Una torre más alta que el lienzo se puede dibujar completa comprimida en
+ * vertical, de modo que el ancho siga mostrando las tazas, o en franjas de {@link #TILE_HEIGHT}
+ * píxeles a tamaño real. Cada imagen se dibuja en un solo hilo y no comparte nada con las demás,
+ * así que renderAll() reparte muchas torres en un ForkJoinPool; mientras se dibujan, las torres
+ * no se deben modificar.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public final class TowerImage {
+
+    public static final int TILE_HEIGHT = 800;
+    private static final int MIN_MARK_SPACING = 3;
+
+    private TowerImage() {
+    }
+
+    /**
+     * Dibuja una torre completa en una imagen de a lo sumo {@link #TILE_HEIGHT} píxeles de alto.
+     * Si la torre cabe, la imagen es igual a lo que muestra el Canvas; si no, se comprime en vertical.
+     * @param tower Torre a dibujar.
+     * @return Imagen RGB de la torre.
+     */
+    public static BufferedImage render(Tower tower) {
+        return render(tower, TILE_HEIGHT);
+    }
+
+    /**
+     * Dibuja una torre completa en una imagen de a lo sumo maxHeight píxeles de alto, comprimiéndola
+     * solo en vertical si hace falta. Las marcas de nivel se omiten si quedarían a menos de 3 píxeles.
+     * @param tower Torre a dibujar.
+     * @param maxHeight Alto máximo de la imagen en píxeles.
+     * @return Imagen RGB de la torre.
+     */
+    public static BufferedImage render(Tower tower, int maxHeight) {
+        if (maxHeight <= 0) throw new IllegalArgumentException("El alto de la imagen debe ser positivo");
+        int height = Math.min(maxHeight, tower.canvasHeight());
+        return draw(tower, height, 0, (double) height / tower.canvasHeight());
+    }
+
+    /**
+     * Obtiene la cantidad de franjas de {@link #TILE_HEIGHT} píxeles que cubren la torre a tamaño real.
+     * @param tower Torre a dibujar.
+     * @return Cantidad de franjas.
+     */
+    public static int tiles(Tower tower) {
+        return (tower.canvasHeight() + TILE_HEIGHT - 1) / TILE_HEIGHT;
+    }
+
+    /**
+     * Dibuja a tamaño real una franja horizontal de la torre, contando desde arriba.
+     * Cada franja recorre todas las tazas, pero solo pinta los píxeles que caen dentro de ella.
+     * @param tower Torre a dibujar.
+     * @param row Número de la franja, entre 0 y tiles(tower) - 1.
+     * @return Imagen RGB de la franja; la última puede ser más baja.
+     */
+    public static BufferedImage tile(Tower tower, int row) {
+        if (row < 0 || row >= tiles(tower)) throw new IllegalArgumentException("Franja fuera de la torre: " + row);
+        int top = row * TILE_HEIGHT;
+        return draw(tower, Math.min(TILE_HEIGHT, tower.canvasHeight() - top), top, 1);
+    }
+
+    /**
+     * Escribe en PNG la imagen de render(tower).
+     * @param tower Torre a dibujar.
+     * @param out Flujo de salida; no se cierra.
+     * @throws IOException Si no se puede escribir.
+     */
+    public static void writePng(Tower tower, OutputStream out) throws IOException {
+        ImageIO.write(render(tower), "png", out);
+    }
+
+    /**
+     * Dibuja muchas torres en paralelo, cada una como en render(tower, maxHeight).
+     * @param towers Torres a dibujar, que no deben cambiar mientras tanto.
+     * @param maxHeight Alto máximo de cada imagen en píxeles.
+     * @param pool Grupo de hilos donde se reparten las torres.
+     * @return Una imagen por torre, en el mismo orden.
+     */
+    public static BufferedImage[] renderAll(List<Tower> towers, int maxHeight, ForkJoinPool pool) {
+        if (maxHeight <= 0) throw new IllegalArgumentException("El alto de la imagen debe ser positivo");
+        BufferedImage[] images = new BufferedImage[towers.size()];
+        pool.invoke(new Shard(towers, maxHeight, images, 0, images.length));
+        return images;
+    }
+
+    /**
+     * Convierte un nombre de color del Canvas en RGB; los nombres desconocidos son negros, como en el Canvas.
+     * @param color Nombre del color.
+     * @return Color en 0xRRGGBB.
+     */
+    public static int rgb(String color) {
+        switch (color) {
+            case "red": return 0xFF0000;
+            case "blue": return 0x0000FF;
+            case "green": return 0x00FF00;
+            case "yellow": return 0xFFFF00;
+            case "magenta": return 0xFF00FF;
+            case "white": return 0xFFFFFF;
+            default: return 0x000000;
+        }
+    }
+
+    /**
+     * Crea una imagen en blanco y pinta sobre ella la torre, desplazada hacia arriba top
+     * píxeles del lienzo y escalada en vertical.
+     */
+    private static BufferedImage draw(Tower tower, int height, int top, double scaleY) {
+        BufferedImage image = new BufferedImage(tower.canvasWidth(), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        Raster raster = new Raster(image, top, scaleY);
+        Arrays.fill(raster.pixels, 0xFFFFFF);
+        tower.paint(raster, Tower.SCALE * scaleY >= MIN_MARK_SPACING);
+        return image;
+    }
+
+    /**
+     * Pintor que rellena rectángulos sobre los píxeles de una imagen, recortándolos a sus bordes.
+     * Con escala vertical menor que 1, un rectángulo nunca baja de un píxel de alto.
+     */
+    private static final class Raster implements TowerPainter {
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+        private final int top;
+        private final double scaleY;
+
+        Raster(BufferedImage image, int top, double scaleY) {
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.top = top;
+            this.scaleY = scaleY;
+        }
+
+        @Override
+        public void rectangle(int x, int y, int w, int h, String color) {
+            if (w <= 0 || h <= 0) return;
+            int y0 = (int) Math.floor((y - top) * scaleY);
+            int y1 = Math.max(y0 + 1, (int) Math.floor((y + h - top) * scaleY));
+            int x0 = Math.max(0, x);
+            int x1 = Math.min(width, x + w);
+            y0 = Math.max(0, y0);
+            y1 = Math.min(height, y1);
+            if (x0 >= x1 || y0 >= y1) return;
+            int rgb = rgb(color);
+            for (int row = y0; row < y1; row++) {
+                Arrays.fill(pixels, row * width + x0, row * width + x1, rgb);
+            }
+        }
+    }
+
+    /**
+     * Tarea que dibuja las torres [from, to), partiendo el rango por mitades hasta una torre por tarea.
+     */
+    private static final class Shard extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Tower> towers;
+        private final int maxHeight;
+        private final BufferedImage[] images;
+        private final int from;
+        private final int to;
+
+        Shard(List<Tower> towers, int maxHeight, BufferedImage[] images, int from, int to) {
+            this.towers = towers;
+            this.maxHeight = maxHeight;
+            this.images = images;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Shard(towers, maxHeight, images, from, mid), new Shard(towers, maxHeight, images, mid, to));
+                return;
+            }
+            for (int index = from; index < to; index++) {
+                images[index] = render(towers.get(index), maxHeight);
+            }
+        }
+    }
+}
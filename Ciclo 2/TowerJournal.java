@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * Historial acotado de las operaciones de una torre para deshacerlas y rehacerlas.
+ *
+ * Cada entrada guarda solo lo necesario para invertir la operación: el tipo, hasta tres enteros
+ * (identificadores, posición o banderas de tapa) y, para cover y orderTower, la lista de tazas
+ * tapadas o el orden anterior. Las entradas viven en un búfer circular de capacidad fija: al
+ * llenarse se descarta la más antigua, así que una sesión larga no crece sin límite.
+ * Registrar una operación nueva descarta lo que se podía rehacer.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerJournal {
+
+    public static final byte PUSH_CUP = 1;
+    public static final byte POP_CUP = 2;
+    public static final byte REMOVE_CUP = 3;
+    public static final byte PUSH_LID = 4;
+    public static final byte REMOVE_LID = 5;
+    public static final byte SWAP = 6;
+    public static final byte REVERSE = 7;
+    public static final byte ORDER = 8;
+    public static final byte COVER = 9;
+
+    private byte[] kinds;
+    private int[] firsts;
+    private int[] seconds;
+    private int[] thirds;
+    private int[][] payloads;
+    private int start;
+    private int undoCount;
+    private int redoCount;
+
+    /**
+     * Constructor que crea un historial vacío.
+     * @param capacity Cantidad máxima de operaciones que se pueden deshacer.
+     */
+    public TowerJournal(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("La capacidad debe ser positiva");
+        kinds = new byte[capacity];
+        firsts = new int[capacity];
+        seconds = new int[capacity];
+        thirds = new int[capacity];
+        payloads = new int[capacity][];
+    }
+
+    /**
+     * Registra una operación realizada y descarta las que se podían rehacer.
+     * Si el historial está lleno se olvida la operación más antigua.
+     * @param kind Tipo de operación.
+     * @param first Primer dato de la operación.
+     * @param second Segundo dato de la operación.
+     * @param third Tercer dato de la operación.
+     * @param payload Lista de datos de la operación, o null.
+     */
+    public void record(byte kind, int first, int second, int third, int[] payload) {
+        for (int k = undoCount; k < undoCount + redoCount; k++) {
+            payloads[slot(k)] = null;
+        }
+        redoCount = 0;
+        if (undoCount == kinds.length) {
+            payloads[start] = null;
+            start = (start + 1) % kinds.length;
+            undoCount--;
+        }
+        int s = slot(undoCount);
+        kinds[s] = kind;
+        firsts[s] = first;
+        seconds[s] = second;
+        thirds[s] = third;
+        payloads[s] = payload;
+        undoCount++;
+    }
+
+    /**
+     * Indica si hay una operación para deshacer.
+     * @return true si se puede deshacer.
+     */
+    public boolean canUndo() {
+        return undoCount > 0;
+    }
+
+    /**
+     * Indica si hay una operación para rehacer.
+     * @return true si se puede rehacer.
+     */
+    public boolean canRedo() {
+        return redoCount > 0;
+    }
+
+    /**
+     * Pasa la última operación realizada a la lista de operaciones por rehacer.
+     * @return Casilla de la entrada que hay que deshacer.
+     */
+    public int undo() {
+        undoCount--;
+        redoCount++;
+        return slot(undoCount);
+    }
+
+    /**
+     * Pasa la siguiente operación por rehacer a la lista de operaciones realizadas.
+     * @return Casilla de la entrada que hay que rehacer.
+     */
+    public int redo() {
+        redoCount--;
+        undoCount++;
+        return slot(undoCount - 1);
+    }
+
+    /**
+     * Obtiene el tipo de operación de una casilla.
+     * @param s Casilla de la entrada.
+     * @return Tipo de operación.
+     */
+    public byte kind(int s) {
+        return kinds[s];
+    }
+
+    /**
+     * Obtiene el primer dato de una casilla.
+     * @param s Casilla de la entrada.
+     * @return Primer dato.
+     */
+    public int first(int s) {
+        return firsts[s];
+    }
+
+    /**
+     * Obtiene el segundo dato de una casilla.
+     * @param s Casilla de la entrada.
+     * @return Segundo dato.
+     */
+    public int second(int s) {
+        return seconds[s];
+    }
+
+    /**
+     * Obtiene el tercer dato de una casilla.
+     * @param s Casilla de la entrada.
+     * @return Tercer dato.
+     */
+    public int third(int s) {
+        return thirds[s];
+    }
+
+    /**
+     * Obtiene la lista de datos de una casilla.
+     * @param s Casilla de la entrada.
+     * @return Lista de datos, o null si la operación no tiene.
+     */
+    public int[] payload(int s) {
+        return payloads[s];
+    }
+
+    /**
+     * Olvida todas las operaciones registradas.
+     */
+    public void clear() {
+        Arrays.fill(payloads, null);
+        start = 0;
+        undoCount = 0;
+        redoCount = 0;
+    }
+
+    /**
+     * Convierte un número de entrada, contado desde la más antigua, en una casilla del búfer.
+     */
+    private int slot(int k) {
+        return (start + k) % kinds.length;
+    }
+}
@@ -0,0 +1,265 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas opcionales de las operaciones de una o varias torres: cuántas veces se ejecutó cada
+ * operación, cuántas se rechazaron y por qué motivo, y un histograma de su latencia.
+ *
+ * Una torre sin métricas ({@link Tower#setMetrics(TowerMetrics)} con null, el valor inicial) solo
+ * paga una comparación con null por operación. Con métricas, cada operación cuesta dos lecturas
+ * del reloj y unos incrementos atómicos, sin crear objetos, así que la misma instancia puede
+ * compartirse entre torres de distintos hilos.
+ *
+ * El histograma es logarítmico-lineal, como HdrHistogram: valores exactos hasta 64 ns y luego
+ * 32 subdivisiones por cada potencia de dos, es decir, un error relativo de a lo sumo 1/32,
+ * hasta unos 18 minutos. Los datos se consultan con los métodos de esta clase, con report()
+ * en texto o por JMX después de {@link #register(String)}.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerMetrics implements TowerMetricsMXBean {
+
+    public static final int PUSH_CUP = 0;
+    public static final int POP_CUP = 1;
+    public static final int REMOVE_CUP = 2;
+    public static final int PUSH_LID = 3;
+    public static final int POP_LID = 4;
+    public static final int REMOVE_LID = 5;
+    public static final int SWAP = 6;
+    public static final int COVER = 7;
+    public static final int ORDER = 8;
+    public static final int REVERSE = 9;
+    public static final int HEIGHT = 10;
+    public static final int REORGANIZE = 11;
+    private static final String[] NAMES = {
+        "pushCup", "popCup", "removeCup", "pushLid", "popLid", "removeLid",
+        "swap", "cover", "orderTower", "reverseTower", "height", "reorganize"
+    };
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 35;
+    private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+    private static final TowerStatus[] STATUSES = TowerStatus.values();
+
+    private final AtomicLongArray counts;
+    private final AtomicLongArray totals;
+    private final AtomicLongArray maxima;
+    private final AtomicLongArray histograms;
+    private final AtomicLongArray rejections;
+
+    /**
+     * Constructor que crea métricas en cero.
+     */
+    public TowerMetrics() {
+        counts = new AtomicLongArray(NAMES.length);
+        totals = new AtomicLongArray(NAMES.length);
+        maxima = new AtomicLongArray(NAMES.length);
+        histograms = new AtomicLongArray(NAMES.length * BUCKETS);
+        rejections = new AtomicLongArray(NAMES.length * STATUSES.length);
+    }
+
+    /**
+     * Registra una ejecución de una operación.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @param status Resultado de la operación; si no es OK cuenta como rechazo por ese motivo.
+     * @param nanos Duración en nanosegundos.
+     */
+    public void record(int operation, TowerStatus status, long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(operation);
+        totals.addAndGet(operation, nanos);
+        long max = maxima.get(operation);
+        while (nanos > max && !maxima.compareAndSet(operation, max, nanos)) {
+            max = maxima.get(operation);
+        }
+        histograms.incrementAndGet(operation * BUCKETS + bucket(nanos));
+        if (!status.isOk()) rejections.incrementAndGet(operation * STATUSES.length + status.ordinal());
+    }
+
+    /**
+     * Obtiene el nombre de una operación.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @return Nombre del método correspondiente de la torre.
+     */
+    public static String name(int operation) {
+        return NAMES[operation];
+    }
+
+    /**
+     * Obtiene cuántas veces se ejecutó una operación.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @return Cantidad de ejecuciones.
+     */
+    public long count(int operation) {
+        return counts.get(operation);
+    }
+
+    /**
+     * Obtiene cuántas veces se rechazó una operación por un motivo.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @param reason Motivo del rechazo.
+     * @return Cantidad de rechazos.
+     */
+    public long rejections(int operation, TowerStatus reason) {
+        return rejections.get(operation * STATUSES.length + reason.ordinal());
+    }
+
+    /**
+     * Obtiene cuántas operaciones, de cualquier tipo, se rechazaron por un motivo.
+     * @param reason Motivo del rechazo.
+     * @return Cantidad de rechazos.
+     */
+    public long rejections(TowerStatus reason) {
+        long total = 0;
+        for (int op = 0; op < NAMES.length; op++) total += rejections(op, reason);
+        return total;
+    }
+
+    /**
+     * Obtiene la latencia promedio de una operación.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @return Nanosegundos, o 0 si no se ha ejecutado.
+     */
+    public double meanNanos(int operation) {
+        long count = counts.get(operation);
+        return count == 0 ? 0 : (double) totals.get(operation) / count;
+    }
+
+    /**
+     * Obtiene la mayor latencia de una operación.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @return Nanosegundos, o 0 si no se ha ejecutado.
+     */
+    public long maxNanos(int operation) {
+        return maxima.get(operation);
+    }
+
+    /**
+     * Obtiene un percentil de la latencia de una operación, con el error del histograma.
+     * @param operation Operación, una de las constantes de esta clase.
+     * @param percentile Percentil entre 0 y 100.
+     * @return Nanosegundos, o 0 si no se ha ejecutado.
+     */
+    public long percentileNanos(int operation, double percentile) {
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) count += histograms.get(operation * BUCKETS + b);
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histograms.get(operation * BUCKETS + b);
+            if (seen >= rank) return Math.min(highest(b), maxima.get(operation));
+        }
+        return maxima.get(operation);
+    }
+
+    /**
+     * Pone en cero todos los contadores.
+     */
+    @Override
+    public void reset() {
+        for (int k = 0; k < counts.length(); k++) {
+            counts.set(k, 0);
+            totals.set(k, 0);
+            maxima.set(k, 0);
+        }
+        for (int k = 0; k < histograms.length(); k++) histograms.set(k, 0);
+        for (int k = 0; k < rejections.length(); k++) rejections.set(k, 0);
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int op = 0; op < NAMES.length; op++) map.put(NAMES[op], count(op));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getRejections() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int op = 0; op < NAMES.length; op++) {
+            for (TowerStatus reason : STATUSES) {
+                long count = rejections(op, reason);
+                if (count > 0) map.put(NAMES[op] + "/" + reason, count);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getMedianNanos() {
+        return percentiles(50);
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return percentiles(99);
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int op = 0; op < NAMES.length; op++) map.put(NAMES[op], maxNanos(op));
+        return map;
+    }
+
+    /**
+     * Publica estas métricas en el servidor JMX de la plataforma, para verlas con jconsole o similares.
+     * @param name Nombre de la torre o del grupo de torres.
+     * @return Nombre JMX con el que quedaron registradas.
+     * @throws JMException Si el nombre no es válido o ya está registrado.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("Tower:type=TowerMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Resume en texto las operaciones ejecutadas y los rechazos.
+     * @return Una línea por operación ejecutada y una por cada motivo de rechazo.
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder(String.format("%-13s %10s %10s %10s %10s %12s%n",
+            "operación", "cantidad", "media ns", "p50 ns", "p99 ns", "máx ns"));
+        for (int op = 0; op < NAMES.length; op++) {
+            if (count(op) == 0) continue;
+            text.append(String.format("%-13s %10d %10.0f %10d %10d %12d%n", NAMES[op], count(op),
+                meanNanos(op), percentileNanos(op, 50), percentileNanos(op, 99), maxNanos(op)));
+        }
+        for (Map.Entry<String, Long> rejection : getRejections().entrySet()) {
+            text.append(String.format("rechazo %-30s %10d%n", rejection.getKey(), rejection.getValue()));
+        }
+        return text.toString();
+    }
+
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int op = 0; op < NAMES.length; op++) map.put(NAMES[op], percentileNanos(op, percentile));
+        return map;
+    }
+
+    /**
+     * Ubica una duración en el histograma: exacta por debajo de 64 y con 32 subdivisiones
+     * por potencia de dos desde ahí.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) return (int) nanos;
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS);
+        long top = Math.min(2 * SUB_BUCKETS - 1, nanos >>> shift);
+        return (shift + 1) * SUB_BUCKETS + (int) (top - SUB_BUCKETS);
+    }
+
+    /**
+     * Obtiene el mayor valor que cae en una casilla del histograma.
+     */
+    private static long highest(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
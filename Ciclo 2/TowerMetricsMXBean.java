@@ -0,0 +1,44 @@
+import java.util.Map;
+
+/**
+ * Vista JMX de {@link TowerMetrics}: contadores, rechazos y latencias por operación,
+ * con el nombre de la operación (y del motivo de rechazo) como clave.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public interface TowerMetricsMXBean {
+
+    /**
+     * Obtiene cuántas veces se ejecutó cada operación.
+     * @return Cantidad por nombre de operación.
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Obtiene cuántas veces se rechazó cada operación por cada motivo.
+     * @return Cantidad por "operación/motivo", solo los que ocurrieron.
+     */
+    Map<String, Long> getRejections();
+
+    /**
+     * Obtiene la mediana de la latencia de cada operación.
+     * @return Nanosegundos por nombre de operación.
+     */
+    Map<String, Long> getMedianNanos();
+
+    /**
+     * Obtiene el percentil 99 de la latencia de cada operación.
+     * @return Nanosegundos por nombre de operación.
+     */
+    Map<String, Long> getP99Nanos();
+
+    /**
+     * Obtiene la mayor latencia de cada operación.
+     * @return Nanosegundos por nombre de operación.
+     */
+    Map<String, Long> getMaxNanos();
+
+    /**
+     * Pone en cero todos los contadores.
+     */
+    void reset();
+}
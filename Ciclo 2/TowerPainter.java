@@ -0,0 +1,35 @@
+/**
+ * Recibe los rectángulos que forman el dibujo de una torre, en el orden en que se pintan
+ * (cada uno queda encima de los anteriores), con coordenadas en píxeles del lienzo.
+ * Lo usan las vistas del Canvas, {@link TowerImage} y {@link TowerSvg} para dibujar con la misma geometría.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+@FunctionalInterface
+public interface TowerPainter {
+
+    /**
+     * Pinta un rectángulo relleno.
+     * @param x Coordenada horizontal de la esquina superior izquierda.
+     * @param y Coordenada vertical de la esquina superior izquierda.
+     * @param width Ancho en píxeles.
+     * @param height Alto en píxeles.
+     * @param color Nombre del color, como en el Canvas ("red", "black", "white"...).
+     */
+    void rectangle(int x, int y, int width, int height, String color);
+
+    /**
+     * Avisa que los rectángulos siguientes, hasta endCup(), son de una taza y su tapa.
+     * Por defecto no hace nada.
+     * @param id Identificador de la taza.
+     */
+    default void beginCup(int id) {
+    }
+
+    /**
+     * Avisa que terminaron los rectángulos de la taza anunciada con beginCup().
+     * Por defecto no hace nada.
+     * @param id Identificador de la taza.
+     */
+    default void endCup(int id) {
+    }
+}
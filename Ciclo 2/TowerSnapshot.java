@@ -0,0 +1,472 @@
+import java.util.Arrays;
+
+/**
+ * Copia inmutable de una torre que comparte estructura entre versiones.
+ *
+ * Las tazas se guardan, de abajo hacia arriba, en un árbol de 32 ramas por nodo donde cada hoja
+ * tiene 32 tazas codificadas en un long (identificador y banderas de tapa). Un segundo árbol,
+ * indexado por los bits del identificador, guarda la posición de cada taza. Cada edición copia
+ * solo los nodos del camino que cambia (O(log n)) y devuelve una versión nueva; la anterior
+ * sigue valiendo. Por eso bifurcar una torre es O(1): basta con conservar la referencia, y
+ * miles de bifurcaciones ocupan memoria según las ediciones hechas, no según el tamaño.
+ *
+ * Las ediciones no verifican la altura máxima; height() calcula la altura cuando se pide y la
+ * recuerda, y toTower() devuelve una torre normal para seguir trabajando con todas sus reglas.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public final class TowerSnapshot {
+
+    private static final int BITS = 5;
+    private static final int BRANCH = 1 << BITS;
+    private static final int MASK = BRANCH - 1;
+    private static final int INDEX_SHIFT = 30;
+    private static final long LID = 1;
+    private static final long LID_IN_CUP_COLOR = 2;
+    private static final long[] EMPTY_LEAF = new long[BRANCH];
+
+    private final int width;
+    private final int maxHeight;
+    private final int count;
+    private final int shift;
+    private final Object root;
+    private final Object index;
+    private int height;
+    private int lids;
+
+    private TowerSnapshot(int width, int maxHeight, int count, int shift, Object root, Object index) {
+        this.width = width;
+        this.maxHeight = maxHeight;
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.index = index;
+        this.height = -1;
+        this.lids = -1;
+    }
+
+    /**
+     * Construye la copia de una torre, de abajo hacia arriba, en O(n).
+     * @param width Ancho de la torre.
+     * @param maxHeight Altura máxima de la torre.
+     * @param ids Identificadores de las tazas de abajo hacia arriba.
+     * @param flags Bandera de tapa de cada taza (1 con tapa, 2 tapa del color de la taza).
+     * @param count Cantidad de tazas válidas en los arreglos.
+     * @return La copia inmutable.
+     */
+    static TowerSnapshot of(int width, int maxHeight, int[] ids, byte[] flags, int count) {
+        Object[] level = new Object[Math.max(1, (count + MASK) >>> BITS)];
+        for (int l = 0; l < level.length; l++) {
+            long[] leaf = new long[BRANCH];
+            for (int k = 0; k < BRANCH && (l << BITS) + k < count; k++) {
+                int p = (l << BITS) + k;
+                leaf[k] = encode(ids[p], flags[p]);
+            }
+            level[l] = leaf;
+        }
+        int shift = 0;
+        while (level.length > 1) {
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for (int k = 0; k < parents.length; k++) {
+                Object[] node = new Object[BRANCH];
+                System.arraycopy(level, k << BITS, node, 0, Math.min(BRANCH, level.length - (k << BITS)));
+                parents[k] = node;
+            }
+            level = parents;
+            shift += BITS;
+        }
+        // La copia recién creada no la conoce nadie más, así que el índice se llena sin copiar caminos.
+        Object[] index = new Object[BRANCH];
+        for (int p = 0; p < count; p++) {
+            Object[] node = index;
+            for (int l = INDEX_SHIFT; l > BITS; l -= BITS) {
+                int slot = (ids[p] >>> l) & MASK;
+                if (node[slot] == null) node[slot] = new Object[BRANCH];
+                node = (Object[]) node[slot];
+            }
+            int slot = (ids[p] >>> BITS) & MASK;
+            if (node[slot] == null) node[slot] = new int[BRANCH];
+            ((int[]) node[slot])[ids[p] & MASK] = p + 1;
+        }
+        return new TowerSnapshot(width, maxHeight, count, shift, level[0], index);
+    }
+
+    /**
+     * Obtiene la cantidad de tazas.
+     * @return Número de tazas.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Obtiene el ancho de la torre.
+     * @return Ancho en unidades.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Obtiene la altura máxima de la torre.
+     * @return Altura máxima en unidades.
+     */
+    public int maxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Obtiene el identificador de la taza de una posición.
+     * @param p Posición, desde 0 en el fondo.
+     * @return Identificador de la taza.
+     */
+    public int id(int p) {
+        return (int) (entry(p) >> 2);
+    }
+
+    /**
+     * Indica si la taza de una posición tiene tapa.
+     * @param p Posición, desde 0 en el fondo.
+     * @return true si tiene tapa.
+     */
+    public boolean hasLid(int p) {
+        return (entry(p) & LID) != 0;
+    }
+
+    /**
+     * Indica si la tapa de la taza de una posición tiene el color de la taza.
+     * @param p Posición, desde 0 en el fondo.
+     * @return true si la tapa usa el color de la taza.
+     */
+    public boolean lidInCupColor(int p) {
+        return (entry(p) & LID_IN_CUP_COLOR) != 0;
+    }
+
+    /**
+     * Busca la posición de una taza.
+     * @param id Identificador de la taza.
+     * @return Posición desde 0 en el fondo, o -1 si la taza no está.
+     */
+    public int position(int id) {
+        Object node = index;
+        for (int level = INDEX_SHIFT; node != null; level -= BITS) {
+            int slot = (id >>> level) & MASK;
+            if (level == 0) return ((int[]) node)[slot] - 1;
+            node = ((Object[]) node)[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Agrega una taza sin tapa en la cima.
+     * @param id Identificador de la taza.
+     * @return La versión con la taza agregada, o esta misma si la taza ya estaba.
+     */
+    public TowerSnapshot pushCup(int id) {
+        return push(id, (byte) 0);
+    }
+
+    /**
+     * Agrega una taza en la cima con sus banderas de tapa.
+     * @param id Identificador de la taza.
+     * @param flags Bandera de tapa (1 con tapa, 2 tapa del color de la taza).
+     * @return La versión con la taza agregada, o esta misma si la taza ya estaba.
+     */
+    TowerSnapshot push(int id, byte flags) {
+        if (position(id) != -1) return this;
+        Object newRoot;
+        int newShift = shift;
+        if (count == (BRANCH << shift)) {
+            Object[] top = new Object[BRANCH];
+            top[0] = root;
+            top[1] = newPath(shift, encode(id, flags));
+            newRoot = top;
+            newShift += BITS;
+        } else {
+            newRoot = setEntry(root, shift, count, encode(id, flags));
+        }
+        return new TowerSnapshot(width, maxHeight, count + 1, newShift, newRoot,
+            putIndex(index, INDEX_SHIFT, id, count + 1));
+    }
+
+    /**
+     * Quita la taza de la cima.
+     * @return La versión sin la taza de la cima, o esta misma si no hay tazas.
+     */
+    public TowerSnapshot popCup() {
+        if (count == 0) return this;
+        int id = id(count - 1);
+        Object newRoot = root;
+        int newShift = shift;
+        if (shift > 0 && count - 1 <= (1 << shift)) {
+            newRoot = ((Object[]) root)[0];
+            newShift -= BITS;
+        }
+        return new TowerSnapshot(width, maxHeight, count - 1, newShift, newRoot,
+            putIndex(index, INDEX_SHIFT, id, 0));
+    }
+
+    /**
+     * Intercambia la posición de dos tazas.
+     * @param id1 Identificador de la primera taza.
+     * @param id2 Identificador de la segunda taza.
+     * @return La versión con las tazas intercambiadas, o esta misma si alguna no está.
+     */
+    public TowerSnapshot swap(int id1, int id2) {
+        int p = position(id1);
+        int q = position(id2);
+        if (p == -1 || q == -1) return this;
+        long first = entry(p);
+        long second = entry(q);
+        Object newRoot = setEntry(setEntry(root, shift, p, second), shift, q, first);
+        Object newIndex = putIndex(putIndex(index, INDEX_SHIFT, id1, q + 1), INDEX_SHIFT, id2, p + 1);
+        return new TowerSnapshot(width, maxHeight, count, shift, newRoot, newIndex);
+    }
+
+    /**
+     * Pone o quita la tapa de una taza.
+     * @param id Identificador de la taza.
+     * @param lid true para poner una tapa negra, false para quitarla.
+     * @return La versión con el cambio, o esta misma si la taza no está o ya estaba así.
+     */
+    public TowerSnapshot withLid(int id, boolean lid) {
+        int p = position(id);
+        if (p == -1 || hasLid(p) == lid) return this;
+        Object newRoot = setEntry(root, shift, p, encode(id, (byte) (lid ? LID : 0)));
+        return new TowerSnapshot(width, maxHeight, count, shift, newRoot, index);
+    }
+
+    /**
+     * Tapa las tazas destapadas con las reglas de {@link Tower#cover()}.
+     * Como esa operación puede cambiar todas las tazas, la versión nueva no comparte estructura.
+     * @return La versión con las tapas puestas.
+     */
+    public TowerSnapshot cover() {
+        Tower tower = toTower();
+        tower.cover();
+        return tower.snapshot();
+    }
+
+    /**
+     * Calcula la altura de la torre teniendo en cuenta las tazas anidadas y las tapas.
+     * Se calcula en O(n) la primera vez y luego se reutiliza, porque la copia no cambia.
+     * @return Altura total en unidades.
+     */
+    public int height() {
+        int h = height;
+        if (h < 0) {
+            h = heights().height();
+            height = h;
+        }
+        return h;
+    }
+
+    /**
+     * Obtiene los identificadores de las tazas que tienen tapa, como {@link Tower#lidedCups()}.
+     * @return Arreglo de enteros con los IDs ordenados.
+     */
+    public int[] lidedCups() {
+        int[] lided = new int[lidCount()];
+        int k = 0;
+        for (int p = 0; p < count; p += BRANCH) {
+            long[] leaf = leaf(p);
+            for (int slot = 0; slot < BRANCH && p + slot < count; slot++) {
+                if ((leaf[slot] & LID) != 0) lided[k++] = (int) (leaf[slot] >> 2);
+            }
+        }
+        Arrays.sort(lided);
+        return lided;
+    }
+
+    /**
+     * Copia en orden ascendente los identificadores de las tazas tapadas, como {@link Tower#lidedCups(int[])}.
+     * @param into Arreglo destino; si es más corto, se llena con los primeros.
+     * @return Cantidad total de tazas tapadas.
+     */
+    public int lidedCups(int[] into) {
+        int[] lided = lidedCups();
+        System.arraycopy(lided, 0, into, 0, Math.min(lided.length, into.length));
+        return lided.length;
+    }
+
+    /**
+     * Retorna los elementos (tazas y tapas) en el orden en que están apilados, como {@link Tower#stackingItems()}.
+     * @return Arreglo bidimensional de Strings con el tipo y ID de cada elemento.
+     */
+    public String[][] stackingItems() {
+        String[][] items = new String[count + lidCount()][];
+        int k = 0;
+        for (int p = 0; p < count; p += BRANCH) {
+            long[] leaf = leaf(p);
+            for (int slot = 0; slot < BRANCH && p + slot < count; slot++) {
+                String id = String.valueOf(leaf[slot] >> 2);
+                items[k++] = new String[]{"cup", id};
+                if ((leaf[slot] & LID) != 0) {
+                    items[k++] = new String[]{"lid", id};
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Copia los elementos apilados como pares de enteros (tipo e ID), como {@link Tower#stackingItems(int[])}.
+     * @param into Arreglo destino, de al menos el doble de la cantidad de elementos.
+     * @return Cantidad total de elementos (tazas más tapas).
+     */
+    public int stackingItems(int[] into) {
+        int k = 0;
+        for (int p = 0; p < count && k + 1 < into.length; p += BRANCH) {
+            long[] leaf = leaf(p);
+            for (int slot = 0; slot < BRANCH && p + slot < count && k + 1 < into.length; slot++) {
+                into[k++] = Tower.CUP_ITEM;
+                into[k++] = (int) (leaf[slot] >> 2);
+                if ((leaf[slot] & LID) != 0 && k + 1 < into.length) {
+                    into[k++] = Tower.LID_ITEM;
+                    into[k++] = (int) (leaf[slot] >> 2);
+                }
+            }
+        }
+        return count + lidCount();
+    }
+
+    /**
+     * Busca un intercambio entre dos tazas que reduzca la altura, como {@link Tower#swapToReduce()}.
+     * La búsqueda trabaja sobre un motor de alturas propio, así que la copia no cambia.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] swapToReduce() {
+        return swapPair(SwapSearch.find(heights(), false));
+    }
+
+    /**
+     * Busca el intercambio entre dos tazas que deja la torre más baja, como {@link Tower#bestSwapToReduce()}.
+     * La búsqueda trabaja sobre un motor de alturas propio, así que la copia no cambia.
+     * @return Un arreglo bidimensional con los IDs de las tazas a intercambiar, o vacío si no hay mejora.
+     */
+    public String[][] bestSwapToReduce() {
+        return swapPair(SwapSearch.find(heights(), true));
+    }
+
+    /**
+     * Crea una torre modificable, invisible, con las mismas tazas y tapas.
+     * @return La torre nueva.
+     */
+    public Tower toTower() {
+        return Tower.fromSnapshot(this);
+    }
+
+    /**
+     * Crea un motor de alturas nuevo con las tazas de la copia ya ubicadas, en O(n).
+     */
+    private HeightEngine heights() {
+        HeightEngine engine = new HeightEngine();
+        engine.reserve(count);
+        for (int p = 0; p < count; p += BRANCH) {
+            long[] leaf = leaf(p);
+            for (int slot = 0; slot < BRANCH && p + slot < count; slot++) {
+                int size = 2 * (int) (leaf[slot] >> 2) - 1;
+                boolean lid = (leaf[slot] & LID) != 0;
+                engine.append(size, size + (lid ? Lid.HEIGHT : 0), lid);
+            }
+        }
+        engine.recompute(0);
+        return engine;
+    }
+
+    /**
+     * Cuenta las tazas tapadas la primera vez que se pide y luego reutiliza el valor.
+     */
+    private int lidCount() {
+        int n = lids;
+        if (n < 0) {
+            n = 0;
+            for (int p = 0; p < count; p += BRANCH) {
+                long[] leaf = leaf(p);
+                for (int slot = 0; slot < BRANCH && p + slot < count; slot++) {
+                    if ((leaf[slot] & LID) != 0) n++;
+                }
+            }
+            lids = n;
+        }
+        return n;
+    }
+
+    /**
+     * Convierte las posiciones de un intercambio en el par de tazas que devuelve {@link #swapToReduce()}.
+     */
+    private String[][] swapPair(int[] positions) {
+        if (positions == null) return new String[0][0];
+        return new String[][]{
+            {"cup", String.valueOf(id(positions[0]))},
+            {"cup", String.valueOf(id(positions[1]))}
+        };
+    }
+
+    /**
+     * Obtiene la taza codificada de una posición.
+     */
+    private long entry(int p) {
+        if (p < 0 || p >= count) throw new IndexOutOfBoundsException("Posición " + p);
+        return leaf(p)[p & MASK];
+    }
+
+    /**
+     * Obtiene la hoja de 32 tazas que contiene una posición.
+     */
+    private long[] leaf(int p) {
+        Object node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = ((Object[]) node)[(p >>> level) & MASK];
+        }
+        return (long[]) node;
+    }
+
+    /**
+     * Copia el camino hasta una posición y cambia su valor.
+     */
+    private static Object setEntry(Object node, int level, int p, long value) {
+        if (level == 0) {
+            long[] leaf = ((long[]) node).clone();
+            leaf[p & MASK] = value;
+            return leaf;
+        }
+        Object[] copy = ((Object[]) node).clone();
+        int slot = (p >>> level) & MASK;
+        Object child = copy[slot];
+        copy[slot] = child == null ? newPath(level - BITS, value) : setEntry(child, level - BITS, p, value);
+        return copy;
+    }
+
+    /**
+     * Crea un camino nuevo cuya primera hoja tiene un valor en su primera casilla.
+     */
+    private static Object newPath(int level, long value) {
+        if (level == 0) {
+            long[] leaf = EMPTY_LEAF.clone();
+            leaf[0] = value;
+            return leaf;
+        }
+        Object[] node = new Object[BRANCH];
+        node[0] = newPath(level - BITS, value);
+        return node;
+    }
+
+    /**
+     * Copia el camino del índice hasta un identificador y guarda su posición más uno (0 si no está).
+     */
+    private static Object putIndex(Object node, int level, int id, int value) {
+        int slot = (id >>> level) & MASK;
+        if (level == 0) {
+            int[] leaf = node == null ? new int[BRANCH] : ((int[]) node).clone();
+            leaf[slot] = value;
+            return leaf;
+        }
+        Object[] copy = node == null ? new Object[BRANCH] : ((Object[]) node).clone();
+        copy[slot] = putIndex(copy[slot], level - BITS, id, value);
+        return copy;
+    }
+
+    private static long encode(int id, byte flags) {
+        return ((long) id << 2) | (flags & 3);
+    }
+}
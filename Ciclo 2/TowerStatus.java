@@ -0,0 +1,50 @@
+/**
+ * Resultado de una operación sobre la torre, con un código numérico estable y una descripción.
+ * Las operaciones que modifican la torre lo devuelven, así que quien las llama puede revisar
+ * el resultado sin depender de ok(), que solo recuerda la última operación de la torre.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public enum TowerStatus {
+    OK(0, "Operación exitosa"),
+    DUPLICATE_CUP(1, "La taza ya existe"),
+    NO_SPACE(2, "No hay espacio en la torre"),
+    CUP_NOT_FOUND(3, "La taza no está en la torre"),
+    LID_PRESENT(4, "La taza ya tiene tapa"),
+    LID_MISSING(5, "La taza no tiene tapa"),
+    EMPTY(6, "No hay elementos para quitar"),
+    NOT_A_CUP(7, "Solo se pueden intercambiar tazas"),
+    NO_SOLUTION(8, "No hay un orden de tazas con esa altura"),
+    TOO_TALL_TO_SHOW(9, "La torre no cabe en el lienzo");
+
+    private final int code;
+    private final String description;
+
+    TowerStatus(int code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+
+    /**
+     * Obtiene el código numérico del resultado; 0 indica éxito.
+     * @return Código del resultado.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Obtiene la descripción del resultado.
+     * @return Descripción en texto.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Indica si el resultado corresponde a una operación exitosa.
+     * @return true si es OK.
+     */
+    public boolean isOk() {
+        return this == OK;
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escribe una torre como SVG directamente en un flujo de salida, a medida que recorre las tazas.
+ *
+ * Los rectángulos salen de {@link Tower#paint(TowerPainter, boolean)}, con la misma geometría y
+ * colores que en el lienzo, y cada taza queda en un grupo &lt;g id="taza-ID"&gt; con sus paredes,
+ * fondo, interior y tapa, en orden de apilamiento. No se arma ningún árbol DOM ni se crean textos
+ * por figura: los números se escriben dígito a dígito en un búfer de 64 KB que se vacía al flujo
+ * cuando se llena, así que la memoria no depende del tamaño de la torre.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public final class TowerSvg {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_ELEMENT = 128;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECT_X = ascii("<rect x=\"");
+    private static final byte[] RECT_Y = ascii("\" y=\"");
+    private static final byte[] RECT_WIDTH = ascii("\" width=\"");
+    private static final byte[] RECT_HEIGHT = ascii("\" height=\"");
+    private static final byte[] RECT_FILL = ascii("\" fill=\"#");
+    private static final byte[] RECT_END = ascii("\"/>\n");
+    private static final byte[] GROUP_START = ascii("<g id=\"taza-");
+    private static final byte[] GROUP_OPEN = ascii("\">\n");
+    private static final byte[] GROUP_END = ascii("</g>\n");
+
+    private TowerSvg() {
+    }
+
+    /**
+     * Escribe la torre como un documento SVG del tamaño de su dibujo en el lienzo, con fondo blanco.
+     * La torre no debe cambiar mientras se escribe.
+     * @param tower Torre a escribir.
+     * @param out Flujo de salida; no se cierra.
+     * @param marks true para incluir las marcas de nivel, un rectángulo por cada unidad de altura máxima.
+     * @throws IOException Si no se puede escribir.
+     */
+    public static void write(Tower tower, OutputStream out, boolean marks) throws IOException {
+        Writer writer = new Writer(out);
+        writer.text("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + tower.canvasWidth()
+            + "\" height=\"" + tower.canvasHeight() + "\" viewBox=\"0 0 " + tower.canvasWidth() + " "
+            + tower.canvasHeight() + "\" shape-rendering=\"crispEdges\">\n"
+            + "<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+        try {
+            tower.paint(writer, marks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.text("</svg>\n");
+        writer.flush();
+    }
+
+    /**
+     * Codifica un texto en ASCII, que es también UTF-8 válido.
+     */
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Pintor que escribe cada rectángulo y cada grupo de taza en el búfer, vaciándolo cuando
+     * no queda espacio para un elemento más.
+     */
+    private static final class Writer implements TowerPainter {
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int position;
+
+        Writer(OutputStream out) {
+            this.out = out;
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+
+        @Override
+        public void rectangle(int x, int y, int width, int height, String color) {
+            reserve();
+            put(RECT_X);
+            number(x);
+            put(RECT_Y);
+            number(y);
+            put(RECT_WIDTH);
+            number(width);
+            put(RECT_HEIGHT);
+            number(height);
+            put(RECT_FILL);
+            int rgb = TowerImage.rgb(color);
+            for (int shift = 20; shift >= 0; shift -= 4) {
+                buffer[position++] = HEX[(rgb >>> shift) & 0xF];
+            }
+            put(RECT_END);
+        }
+
+        @Override
+        public void beginCup(int id) {
+            reserve();
+            put(GROUP_START);
+            number(id);
+            put(GROUP_OPEN);
+        }
+
+        @Override
+        public void endCup(int id) {
+            reserve();
+            put(GROUP_END);
+        }
+
+        /**
+         * Escribe un texto corto, como el encabezado o el cierre del documento.
+         */
+        void text(String text) throws IOException {
+            byte[] bytes = ascii(text);
+            if (position + bytes.length > buffer.length) flush();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+            } else {
+                put(bytes);
+            }
+        }
+
+        /**
+         * Entrega al flujo lo que hay en el búfer.
+         */
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        /**
+         * Vacía el búfer si no cabe un elemento completo más.
+         */
+        private void reserve() {
+            if (position + MAX_ELEMENT <= buffer.length) return;
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void put(byte[] bytes) {
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        /**
+         * Escribe un entero en decimal sin crear un String.
+         */
+        private void number(int value) {
+            long v = value;
+            if (v < 0) {
+                buffer[position++] = '-';
+                v = -v;
+            }
+            int digits = 1;
+            for (long rest = v / 10; rest > 0; rest /= 10) digits++;
+            for (int k = position + digits - 1; k >= position; k--) {
+                buffer[k] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            position += digits;
+        }
+    }
+}
@@ -1,5 +1,14 @@
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 import org.junit.jupiter.api.Test;
+import java.util.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.ForkJoinPool;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
 
 public class TowerTestC2 {
 
@@ -60,4 +69,677 @@ public class TowerTestC2 {
         String[][] result = t.swapToReduce();
         assertTrue(result.length == 0 || result == null);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void swapShouldFindCupsAfterRemovingOne() {
+        Tower t = new Tower(3);
+        t.removeCup(1);
+        t.swap(new String[]{"cup","2"}, new String[]{"cup","3"});
+        assertTrue(t.ok());
+        String[][] items = t.stackingItems();
+        assertEquals("3", items[0][1]);
+        assertEquals("2", items[1][1]);
+    }
+
+    @Test
+    public void heightShouldFollowLidAndCupChanges() {
+        Tower t = new Tower(3);
+        t.cover();
+        assertEquals(12, t.height());
+        t.popLid();
+        assertEquals(11, t.height());
+        t.removeCup(2);
+        assertEquals(7, t.height());
+    }
+
+    @Test
+    public void heightShouldNestSmallerCups() {
+        Tower t = new Tower(10, 50);
+        t.pushCup(3);
+        t.pushCup(2);
+        t.pushCup(1);
+        assertEquals(5, t.height());
+        t.pushLid(2);
+        assertEquals(6, t.height());
+        t.reverseTower();
+        assertEquals(10, t.height());
+    }
+
+    @Test
+    public void swapToReduceShouldFindFirstAndBestSwap() {
+        Tower t = new Tower(10, 50);
+        t.pushCup(1);
+        t.pushCup(2);
+        t.pushCup(3);
+        assertArrayEquals(new String[][]{{"cup","1"}, {"cup","2"}}, t.swapToReduce());
+        assertArrayEquals(new String[][]{{"cup","1"}, {"cup","3"}}, t.bestSwapToReduce());
+        assertEquals(9, t.height());
+    }
+
+    @Test
+    public void forHeightShouldBuildExactHeight() {
+        Tower t = Tower.forHeight(4, 9);
+        assertTrue(t.ok());
+        assertEquals(9, t.height());
+        assertEquals(4, t.stackingItems().length);
+        t = Tower.forHeight(5, 18);
+        assertTrue(t.ok());
+        assertEquals(18, t.height());
+    }
+
+    @Test
+    public void forHeightShouldFailWhenImpossible() {
+        assertFalse(Tower.forHeight(3, 7).ok());
+        assertFalse(Tower.forHeight(3, 4).ok());
+        assertFalse(Tower.forHeight(3, 10).ok());
+    }
+
+    @Test
+    public void swapToReduceCommandShouldReportItself() throws IOException {
+        Tower t = new Tower(10, 50);
+        String log = "pushCup 1\npushCup 1\nswapToReduce\npushCup 1\nswapToReduce\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TowerCommands commands = new TowerCommands(t);
+        commands.run(Channels.newChannel(new ByteArrayInputStream(log.getBytes(StandardCharsets.US_ASCII))), out);
+        assertEquals("true\nfalse\ntrue\nfalse\ntrue\n", out.toString("US-ASCII"));
+        assertEquals(2, commands.failed());
+    }
+
+    @Test
+    public void batchShouldReportEachOperation() {
+        Tower t = new Tower(10, 50);
+        List<Boolean> results = new ArrayList<>();
+        t.batch(tower -> {
+            tower.pushCup(1);
+            results.add(tower.ok());
+            tower.pushCup(1);
+            results.add(tower.ok());
+            tower.pushLid(1);
+            results.add(tower.ok());
+        });
+        assertEquals(Arrays.asList(true, false, true), results);
+        assertEquals(2, t.height());
+    }
+
+    @Test
+    public void commandsShouldReplayLogAndReportEachResult() throws IOException {
+        Tower t = new Tower(10, 50);
+        String log = "pushCup 1\npushCup 3\r\n# comentario\n\npushCup 3\npushLid 1\n"
+            + "swap cup 1 cup 3\nswap lid 1 cup 3\nremoveCup 7\nfly\npopLid";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long executed = new TowerCommands(t).run(
+            Channels.newChannel(new ByteArrayInputStream(log.getBytes(StandardCharsets.US_ASCII))), out);
+        assertEquals(9, executed);
+        assertEquals("true\ntrue\nfalse\ntrue\ntrue\nfalse\nfalse\nfalse\ntrue\n", out.toString("US-ASCII"));
+        assertEquals(5, t.height());
+    }
+
+    @Test
+    public void concurrentTowerShouldMatchSequentialTowerAfterParallelWriters() throws InterruptedException {
+        ConcurrentTower t = new ConcurrentTower(10, Integer.MAX_VALUE / 2);
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int first = w + 1;
+            threads.add(new Thread(() -> {
+                for (int id = first; id <= 400; id += 4) {
+                    t.pushCup(id);
+                    if (!t.ok()) failures.add(new AssertionError("pushCup " + id));
+                    if (id % 3 == 0) t.pushLid(id);
+                    t.pushLid(id);
+                    if (t.ok() == (id % 3 == 0)) failures.add(new AssertionError("pushLid " + id));
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            for (int k = 0; k < 200; k++) {
+                try {
+                    t.stackingItems();
+                    t.lidedCups();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        }));
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertTrue(failures.isEmpty(), failures.toString());
+
+        Tower sequential = new Tower(10, Integer.MAX_VALUE / 2);
+        for (String[] item : t.stackingItems()) {
+            if (item[0].equals("cup")) sequential.pushCup(Integer.parseInt(item[1]));
+            else sequential.pushLid(Integer.parseInt(item[1]));
+        }
+        assertEquals(400, t.lidedCups().length);
+        assertEquals(sequential.height(), t.height());
+    }
+
+    @Test
+    public void concurrentReadsShouldNotWaitForWriters() throws InterruptedException {
+        ConcurrentTower t = new ConcurrentTower(10, 100);
+        t.pushCup(4);
+        t.pushCup(1);
+        t.pushLid(4);
+        Object[] seen = new Object[4];
+        t.batch(b -> {
+            b.pushCup(2);
+            Thread reader = new Thread(() -> {
+                seen[0] = t.lidedCups();
+                seen[1] = t.stackingItems();
+                seen[2] = t.bestSwapToReduce();
+                seen[3] = t.removeLid(9);
+            });
+            reader.start();
+            try {
+                reader.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(reader.isAlive());
+        });
+        assertArrayEquals(new int[]{4}, (int[]) seen[0]);
+        assertEquals(3, ((String[][]) seen[1]).length);
+        assertEquals(0, ((String[][]) seen[2]).length);
+        assertEquals(TowerStatus.CUP_NOT_FOUND, seen[3]);
+        assertEquals(4, t.stackingItems().length);
+    }
+
+    @Test
+    public void batchShouldNotEscapeItsLock() throws InterruptedException {
+        ConcurrentTower t = new ConcurrentTower(10, 100);
+        ConcurrentTower.Batch[] escaped = new ConcurrentTower.Batch[1];
+        Throwable[] fromOtherThread = new Throwable[1];
+        t.batch(b -> {
+            escaped[0] = b;
+            Thread other = new Thread(() -> {
+                try {
+                    b.pushCup(1);
+                } catch (Throwable e) {
+                    fromOtherThread[0] = e;
+                }
+            });
+            other.start();
+            try {
+                other.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            b.pushCup(2);
+        });
+        assertTrue(fromOtherThread[0] instanceof IllegalStateException);
+        assertThrows(IllegalStateException.class, () -> escaped[0].pushCup(3));
+        assertArrayEquals(new String[][]{{"cup", "2"}}, t.stackingItems());
+    }
+
+    @Test
+    public void publishedSnapshotShouldFollowEveryWrite() {
+        Random random = new Random(11);
+        ConcurrentTower t = new ConcurrentTower(10, 2000);
+        Tower sequential = new Tower(10, 2000);
+        for (int k = 0; k < 3000; k++) {
+            int id = 1 + random.nextInt(200);
+            int op = random.nextInt(20);
+            if (op < 12) {
+                t.pushCup(id);
+                sequential.pushCup(id);
+            } else if (op < 14) {
+                t.popCup();
+                sequential.popCup();
+            } else if (op < 16) {
+                t.pushLid(id);
+                sequential.pushLid(id);
+            } else if (op < 17) {
+                t.removeLid(id);
+                sequential.removeLid(id);
+            } else if (op < 18) {
+                t.removeCup(id);
+                sequential.removeCup(id);
+            } else if (op < 19) {
+                int other = 1 + random.nextInt(200);
+                t.swap(id, other);
+                sequential.swap(id, other);
+            } else {
+                t.batch(b -> b.popLid());
+                sequential.popLid();
+            }
+            assertArrayEquals(sequential.stackingItems(), t.stackingItems(), "operación " + k);
+            assertArrayEquals(sequential.lidedCups(), t.lidedCups());
+            assertEquals(sequential.height(), t.snapshot().height());
+        }
+        assertArrayEquals(sequential.bestSwapToReduce(), t.bestSwapToReduce());
+    }
+
+    @Test
+    public void concurrentSwapSearchShouldKeepThreadStatus() {
+        ConcurrentTower t = new ConcurrentTower(10, 100);
+        t.pushCup(1);
+        t.pushCup(2);
+        assertEquals(TowerStatus.DUPLICATE_CUP, t.pushCup(2));
+        t.swapToReduce();
+        t.bestSwapToReduce();
+        assertEquals(TowerStatus.DUPLICATE_CUP, t.status());
+        assertEquals(2, t.stackingItems().length);
+    }
+
+    @Test
+    public void operationsShouldReturnTheirStatus() {
+        Tower t = new Tower(10, 2);
+        assertEquals(TowerStatus.OK, t.pushCup(1));
+        assertEquals(TowerStatus.DUPLICATE_CUP, t.pushCup(1));
+        assertEquals(TowerStatus.NO_SPACE, t.pushCup(2));
+        assertEquals(TowerStatus.CUP_NOT_FOUND, t.pushLid(2));
+        assertEquals(TowerStatus.OK, t.pushLid(1));
+        assertEquals(TowerStatus.LID_PRESENT, t.pushLid(1));
+        assertEquals(TowerStatus.NOT_A_CUP, t.swap(new String[]{"lid", "1"}, new String[]{"cup", "1"}));
+        assertFalse(t.ok());
+        assertEquals(7, t.status().getCode());
+        assertEquals(TowerStatus.OK, t.removeLid(1));
+        assertEquals(TowerStatus.LID_MISSING, t.removeLid(1));
+        assertEquals(TowerStatus.EMPTY, t.popLid());
+        assertEquals(TowerStatus.OK, t.popCup());
+        assertEquals(TowerStatus.EMPTY, t.popCup());
+        assertEquals(TowerStatus.NO_SOLUTION, Tower.forHeight(3, 2).status());
+    }
+
+    @Test
+    public void snapshotForksShouldNotAffectEachOther() {
+        Tower t = new Tower(10, 100);
+        t.pushCup(1);
+        t.pushCup(2);
+        t.pushCup(3);
+        t.pushLid(2);
+        TowerSnapshot base = t.snapshot();
+        TowerSnapshot swapped = base.swap(1, 3);
+        TowerSnapshot uncovered = base.withLid(2, false).popCup();
+
+        assertEquals(t.height(), base.height());
+        assertEquals(2, swapped.position(1));
+        assertEquals(0, base.position(1));
+        assertEquals(-1, uncovered.position(3));
+        assertTrue(base.hasLid(1));
+        assertFalse(uncovered.hasLid(1));
+
+        Tower back = swapped.toTower();
+        t.swap(1, 3);
+        assertArrayEquals(t.stackingItems(), back.stackingItems());
+        assertEquals(t.height(), back.height());
+    }
+
+    @Test
+    public void undoAndRedoShouldRestoreTowerWithinLimit() {
+        Tower t = new Tower(10, 100);
+        t.setUndoLimit(3);
+        t.pushCup(1);
+        t.pushCup(2);
+        t.pushCup(3);
+        String[][] stacked = t.stackingItems();
+        t.cover();
+        t.orderTower();
+        t.swap(1, 3);
+
+        assertEquals(TowerStatus.OK, t.undo());
+        assertEquals(TowerStatus.OK, t.undo());
+        assertEquals(TowerStatus.OK, t.undo());
+        assertArrayEquals(stacked, t.stackingItems());
+        assertEquals(TowerStatus.EMPTY, t.undo());
+
+        assertEquals(TowerStatus.OK, t.redo());
+        assertArrayEquals(new int[]{1, 2, 3}, t.lidedCups());
+        t.removeCup(2);
+        assertEquals(TowerStatus.EMPTY, t.redo());
+        t.undo();
+        assertEquals(3, t.lidedCups().length);
+        assertEquals(12, t.height());
+    }
+
+    @Test
+    public void savedTowerShouldLoadWithSameCupsAndLids() throws IOException {
+        Tower t = Tower.forHeight(40, 500);
+        t.pushLid(3);
+        t.pushLid(40);
+        t.swap(1, 40);
+        Path file = Files.createTempFile("tower", ".bin");
+        try {
+            t.save(file);
+            Tower loaded = Tower.load(file);
+            assertArrayEquals(t.stackingItems(), loaded.stackingItems());
+            assertArrayEquals(t.lidedCups(), loaded.lidedCups());
+            assertEquals(t.height(), loaded.height());
+
+            Files.write(file, new byte[]{1, 2, 3});
+            assertThrows(IOException.class, () -> Tower.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void farmShouldMatchTowersRunOneByOne() throws IOException {
+        String[] scripts = {
+            "pushCup 3\npushCup 1\npushLid 1\ncover\n",
+            "pushCup 2\npushCup 4\nswap cup 2 cup 4\npushLid 9\n",
+            "pushCup 5\npopCup\npopCup\n"
+        };
+        TowerFarm farm = new TowerFarm(2);
+        for (int k = 0; k < 30; k++) {
+            farm.add(10, 100, scripts[k % 3].getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals(10 * 11, farm.run());
+
+        for (int k = 0; k < 30; k++) {
+            Tower t = new Tower(10, 100);
+            TowerCommands commands = new TowerCommands(t);
+            commands.run(Channels.newChannel(new ByteArrayInputStream(
+                scripts[k % 3].getBytes(StandardCharsets.US_ASCII))), new ByteArrayOutputStream());
+            assertEquals(t.ok(), farm.ok(k));
+            assertEquals(t.height(), farm.height(k));
+            assertArrayEquals(t.lidedCups(), farm.lidedCups(k));
+            assertEquals(commands.failed(), farm.failures(k));
+        }
+        assertEquals(1, farm.failures(1));
+        assertFalse(farm.ok(2));
+    }
+
+    @Test
+    public void parallelSwapSearchShouldMatchSequentialSearch() {
+        Tower t = new Tower(10, 10000);
+        int[] ids = {7, 2, 9, 4, 12, 1, 5, 11, 3, 8, 6, 10};
+        for (int id : ids) t.pushCup(id);
+        t.pushLid(9);
+        t.pushLid(5);
+        String[][] items = t.stackingItems();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertArrayEquals(t.swapToReduce(), t.swapToReduce(pool));
+            assertArrayEquals(t.bestSwapToReduce(), t.bestSwapToReduce(pool));
+            assertArrayEquals(items, t.stackingItems());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void primitiveViewsShouldMatchStackingItems() {
+        Tower t = new Tower(10, 100);
+        t.pushCup(4);
+        t.pushCup(1);
+        t.pushCup(3);
+        t.pushLid(3);
+        t.pushLid(4);
+        int[] packed = new int[10];
+        assertEquals(5, t.stackingItems(packed));
+        assertArrayEquals(new int[]{0, 4, 1, 4, 0, 1, 0, 3, 1, 3}, packed);
+
+        List<String> visited = new ArrayList<>();
+        t.forEachItem((kind, id) -> visited.add((kind == Tower.LID_ITEM ? "lid" : "cup") + id));
+        assertEquals(List.of("cup4", "lid4", "cup1", "cup3", "lid3"), visited);
+
+        int[] lided = new int[1];
+        assertEquals(2, t.lidedCups(lided));
+        assertEquals(3, lided[0]);
+        t.removeCup(3);
+        assertArrayEquals(new int[]{4}, t.lidedCups());
+    }
+
+    @Test
+    public void metricsShouldCountOperationsAndRejections() {
+        Tower t = new Tower(10, 10);
+        TowerMetrics metrics = new TowerMetrics();
+        t.setMetrics(metrics);
+        t.setUndoLimit(5);
+        t.pushCup(2);
+        t.pushCup(2);
+        t.pushCup(9);
+        t.pushLid(2);
+        t.height();
+        t.undo();
+
+        assertEquals(3, metrics.count(TowerMetrics.PUSH_CUP));
+        assertEquals(1, metrics.rejections(TowerMetrics.PUSH_CUP, TowerStatus.DUPLICATE_CUP));
+        assertEquals(1, metrics.rejections(TowerStatus.NO_SPACE));
+        assertEquals(1, metrics.count(TowerMetrics.PUSH_LID));
+        assertEquals(1, metrics.count(TowerMetrics.HEIGHT));
+        assertEquals(0, metrics.count(TowerMetrics.REMOVE_LID));
+        assertTrue(metrics.percentileNanos(TowerMetrics.PUSH_CUP, 99) <= metrics.maxNanos(TowerMetrics.PUSH_CUP));
+
+        t.setMetrics(null);
+        t.pushCup(1);
+        assertEquals(3, metrics.count(TowerMetrics.PUSH_CUP));
+    }
+
+    @Test
+    public void offscreenImageShouldMatchPaintedGeometry() {
+        Tower t = new Tower(10, 20);
+        t.pushCup(4);
+        t.pushCup(1);
+        t.pushLid(1);
+        List<int[]> rects = new ArrayList<>();
+        List<String> colors = new ArrayList<>();
+        t.paint((x, y, w, h, color) -> {
+            rects.add(new int[]{x, y, w, h});
+            colors.add(color);
+        }, true);
+        BufferedImage image = TowerImage.render(t);
+        assertEquals(t.canvasWidth(), image.getWidth());
+        assertEquals(t.canvasHeight(), image.getHeight());
+        int[] lid = rects.get(rects.size() - 1);
+        assertEquals("black", colors.get(colors.size() - 1));
+        assertEquals(0x000000, image.getRGB(lid[0] + lid[2] / 2, lid[1] + lid[3] / 2) & 0xFFFFFF);
+        int[] wall = rects.get(rects.size() - 9);
+        assertEquals("magenta", colors.get(colors.size() - 9));
+        assertEquals(0xFF00FF, image.getRGB(wall[0] + wall[2] / 2, wall[1] + wall[3] / 2) & 0xFFFFFF);
+
+        Tower tall = new Tower(10, 1000);
+        for (int i = 1; i <= 30; i++) tall.pushCup(i);
+        assertEquals(800, TowerImage.render(tall).getHeight());
+        assertEquals((tall.canvasHeight() + 799) / 800, TowerImage.tiles(tall));
+        BufferedImage last = TowerImage.tile(tall, TowerImage.tiles(tall) - 1);
+        assertEquals(tall.canvasHeight() - 800 * (TowerImage.tiles(tall) - 1), last.getHeight());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        BufferedImage[] images = TowerImage.renderAll(Arrays.asList(t, tall), 800, pool);
+        pool.shutdown();
+        BufferedImage alone = TowerImage.render(tall);
+        for (int y = 0; y < alone.getHeight(); y += 7) {
+            for (int x = 0; x < alone.getWidth(); x += 3) {
+                assertEquals(alone.getRGB(x, y), images[1].getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void svgShouldStreamOneGroupPerCup() throws Exception {
+        Tower t = new Tower(10, 20);
+        t.pushCup(4);
+        t.pushCup(1);
+        t.pushLid(1);
+        int[] rects = new int[1];
+        t.paint((x, y, w, h, color) -> rects[0]++, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TowerSvg.write(t, out, true);
+        String svg = out.toString(StandardCharsets.UTF_8);
+        assertTrue(svg.endsWith("</svg>\n"));
+        assertEquals(rects[0] + 1, svg.split("<rect ", -1).length - 1);
+        assertEquals(2, svg.split("<g id=\"taza-", -1).length - 1);
+        assertTrue(svg.indexOf("<g id=\"taza-4\">") < svg.indexOf("<g id=\"taza-1\">"));
+        assertTrue(svg.contains("fill=\"#ff00ff\""));
+        javax.xml.parsers.DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void restoreShouldMatchSnapshotAndCountModifications() {
+        ConcurrentTower model = new ConcurrentTower(10, 100);
+        Tower mirror = new Tower(10, 100);
+        model.pushCup(3);
+        model.pushCup(5);
+        model.pushCup(5);
+        model.pushLid(3);
+        assertEquals(3, model.modifications());
+        mirror.restore(model.snapshot());
+        assertArrayEquals(model.stackingItems(), mirror.stackingItems());
+        assertEquals(model.height(), mirror.height());
+
+        model.batch(t -> {
+            t.popCup();
+            t.pushCup(1);
+            t.pushCup(1);
+        });
+        assertEquals(4, model.modifications());
+        mirror.restore(model.snapshot());
+        assertArrayEquals(model.stackingItems(), mirror.stackingItems());
+        assertArrayEquals(model.lidedCups(), mirror.lidedCups());
+        assertEquals(model.height(), mirror.height());
+        assertThrows(IllegalArgumentException.class, () -> new Tower(5, 100).restore(model.snapshot()));
+    }
+
+    @Test
+    public void frameReadsShouldNotWaitForModelWriters() {
+        ConcurrentTower model = new ConcurrentTower(10, 100);
+        model.pushCup(3);
+        TowerSnapshot before = model.snapshot();
+        Object[] seen = new Object[2];
+        model.batch(b -> {
+            b.pushCup(7);
+            Thread painter = new Thread(() -> {
+                seen[0] = model.modifications();
+                seen[1] = model.snapshot();
+            });
+            painter.start();
+            try {
+                painter.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(painter.isAlive());
+        });
+        assertEquals(1L, seen[0]);
+        assertSame(before, seen[1]);
+        assertEquals(2L, model.modifications());
+        assertEquals(2, model.snapshot().size());
+    }
+
+    @Test
+    public void movedOuterCupShouldNotCoverNestedCups() {
+        Tower t = new Tower(10, 60);
+        t.pushCup(5);
+        t.pushCup(2);
+        t.pushCup(4);
+        assertArrayEquals(new int[]{5, 2, 4}, paintedOrder(t));
+        t.swap(5, 4);
+        t.pushLid(5);
+        assertArrayEquals(new int[]{4, 2, 5}, paintedOrder(t));
+        t.removeCup(4);
+        assertArrayEquals(new int[]{2, 5}, paintedOrder(t));
+
+        assumeFalse(GraphicsEnvironment.isHeadless(), "El Canvas necesita pantalla");
+        t = new Tower(10, 60);
+        t.pushCup(5);
+        t.pushCup(2);
+        t.pushCup(4);
+        t.makeVisible();
+        assertArrayEquals(paintedOrder(t), t.drawingOrder());
+        assertEquals(3, t.positionUpdates());
+
+        t.swap(5, 4);
+        assertArrayEquals(paintedOrder(t), t.drawingOrder());
+        assertEquals(5, t.positionUpdates());
+
+        t.pushLid(5);
+        assertEquals(6, t.positionUpdates());
+
+        t.removeCup(4);
+        assertArrayEquals(paintedOrder(t), t.drawingOrder());
+        t.makeInvisible();
+    }
+
+    @Test
+    public void restoreShouldKeepBottomUpDrawingOrder() {
+        int[][] expected = {{5, 2, 4}, {4, 2, 5}, {2, 5, 3}};
+        TowerSnapshot[] snapshots = new TowerSnapshot[3];
+        Tower model = new Tower(10, 60);
+        model.pushCup(5);
+        model.pushCup(2);
+        model.pushCup(4);
+        snapshots[0] = model.snapshot();
+        model.swap(5, 4);
+        model.pushLid(5);
+        snapshots[1] = model.snapshot();
+        model.removeCup(4);
+        model.pushCup(3);
+        snapshots[2] = model.snapshot();
+
+        Tower mirror = new Tower(10, 60);
+        for (int k = 0; k < snapshots.length; k++) {
+            mirror.restore(snapshots[k]);
+            assertArrayEquals(expected[k], paintedOrder(mirror));
+        }
+
+        assumeFalse(GraphicsEnvironment.isHeadless(), "El Canvas necesita pantalla");
+        mirror = new Tower(10, 60);
+        mirror.makeVisible();
+        for (int k = 0; k < snapshots.length; k++) {
+            mirror.restore(snapshots[k]);
+            assertArrayEquals(expected[k], mirror.drawingOrder());
+        }
+        mirror.makeInvisible();
+    }
+
+    @Test
+    public void heightShouldMatchFullRecomputationAfterRandomOperations() {
+        Random random = new Random(7);
+        Tower t = new Tower(10, 400);
+        for (int k = 0; k < 2000; k++) {
+            int id = 1 + random.nextInt(12);
+            switch (random.nextInt(8)) {
+                case 0: case 1: t.pushCup(id); break;
+                case 2: t.removeCup(id); break;
+                case 3: t.pushLid(id); break;
+                case 4: t.removeLid(id); break;
+                case 5: t.swap(new String[]{"cup", "" + id}, new String[]{"cup", "" + (1 + random.nextInt(12))}); break;
+                case 6: t.popCup(); break;
+                default: if (random.nextBoolean()) t.reverseTower(); else t.popLid(); break;
+            }
+            assertEquals(recomputeHeight(t), t.height(), "operación " + k);
+        }
+    }
+
+    /**
+     * Obtiene los identificadores de las tazas en el orden en que Tower.paint() las pinta.
+     */
+    private static int[] paintedOrder(Tower t) {
+        List<Integer> ids = new ArrayList<>();
+        t.paint(new TowerPainter() {
+            @Override
+            public void rectangle(int x, int y, int width, int height, String color) {
+            }
+
+            @Override
+            public void beginCup(int id) {
+                ids.add(id);
+            }
+        }, false);
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Calcula la altura comparando cada taza con todas las anteriores, sin el motor de alturas.
+     */
+    private static int recomputeHeight(Tower t) {
+        List<int[]> cups = new ArrayList<>();
+        for (String[] item : t.stackingItems()) {
+            if (item[0].equals("cup")) cups.add(new int[]{2 * Integer.parseInt(item[1]) - 1, 0});
+            else cups.get(cups.size() - 1)[1] = 1;
+        }
+        int[] bases = new int[cups.size()];
+        int top = 0;
+        for (int k = 0; k < cups.size(); k++) {
+            for (int j = 0; j < k; j++) {
+                boolean nests = cups.get(j)[1] == 0 && cups.get(j)[0] > cups.get(k)[0];
+                bases[k] = Math.max(bases[k], bases[j] + (nests ? 1 : cups.get(j)[0] + cups.get(j)[1]));
+            }
+            top = Math.max(top, bases[k] + cups.get(k)[0] + cups.get(k)[1]);
+        }
+        return top;
+    }
+}
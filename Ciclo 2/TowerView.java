@@ -0,0 +1,110 @@
+import java.util.*;
+import javax.swing.JOptionPane;
+
+/**
+ * Representación gráfica del marco de la torre: bordes, base y marcas de nivel.
+ * También muestra los mensajes de error. Solo se crea al hacer visible la torre,
+ * así que una torre que nunca se muestra no usa el Canvas ni Swing.
+ * * @author Sara Arteaga - Julián Tinjacá
+ */
+public class TowerView {
+
+    private static final int ORIGIN_X = 70;
+    private static final int ORIGIN_Y = 15;
+    private int x;
+    private int y;
+    private int width;
+    private int maxHeight;
+    private List<Rectangle> shapes;
+
+    /**
+     * Constructor que abre el Canvas y dibuja el marco y las marcas de la torre.
+     * @param x Coordenada horizontal de la esquina superior izquierda de la torre.
+     * @param y Coordenada vertical de la esquina superior izquierda de la torre.
+     * @param width Ancho de la torre en unidades.
+     * @param maxHeight Altura máxima de la torre en unidades.
+     */
+    public TowerView(int x, int y, int width, int maxHeight) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.maxHeight = maxHeight;
+        this.shapes = new ArrayList<>();
+        Canvas.getCanvas();
+        draw(this::createRect, x, y, width, maxHeight, true);
+    }
+
+    /**
+     * Elimina visualmente el marco y las marcas de la torre del Canvas.
+     */
+    public void hide() {
+        for (Rectangle r : shapes) r.makeInvisible();
+        shapes.clear();
+    }
+
+    /**
+     * Muestra un mensaje de error al usuario.
+     * @param msg Mensaje a mostrar.
+     */
+    public void showMessage(String msg) {
+        JOptionPane.showMessageDialog(null, msg);
+    }
+
+    /**
+     * Entrega a un pintor el marco de una torre, con la misma geometría que usa en el lienzo:
+     * los bordes laterales, la base y, si se piden, las marcas de nivel horizontales.
+     * @param painter Pintor que recibe los rectángulos.
+     * @param x Coordenada horizontal de la esquina superior izquierda de la torre.
+     * @param y Coordenada vertical de la esquina superior izquierda de la torre.
+     * @param width Ancho de la torre en unidades.
+     * @param maxHeight Altura máxima de la torre en unidades.
+     * @param marks true para incluir una marca por cada unidad de altura.
+     */
+    public static void draw(TowerPainter painter, int x, int y, int width, int maxHeight, boolean marks) {
+        int hPx = maxHeight * Tower.SCALE;
+        int wPx = width * Tower.SCALE;
+        int left = ORIGIN_X + x;
+        int top = ORIGIN_Y + y;
+        painter.rectangle(left, top, 2, hPx, "black");
+        painter.rectangle(left + wPx, top, 2, hPx, "black");
+        painter.rectangle(left, top + hPx, wPx + 2, 2, "black");
+        if (!marks) return;
+        for (int i = 1; i <= maxHeight; i++) {
+            painter.rectangle(left, top + hPx - (i * Tower.SCALE), wPx, 1, "black");
+        }
+    }
+
+    /**
+     * Obtiene el ancho del lienzo que ocupa el marco de una torre, desde el borde izquierdo del Canvas.
+     * @param x Coordenada horizontal de la esquina superior izquierda de la torre.
+     * @param width Ancho de la torre en unidades.
+     * @return Píxeles hasta el final del borde derecho del marco.
+     */
+    public static int right(int x, int width) {
+        return ORIGIN_X + x + width * Tower.SCALE + 2;
+    }
+
+    /**
+     * Obtiene el alto del lienzo que ocupa el marco de una torre, desde el borde superior del Canvas.
+     * @param y Coordenada vertical de la esquina superior izquierda de la torre.
+     * @param maxHeight Altura máxima de la torre en unidades.
+     * @return Píxeles hasta el final de la base del marco.
+     */
+    public static int bottom(int y, int maxHeight) {
+        return ORIGIN_Y + y + maxHeight * Tower.SCALE + 2;
+    }
+
+    /**
+     * Crea y muestra un rectángulo del marco. Un Rectangle nuevo empieza en (ORIGIN_X, ORIGIN_Y),
+     * así que se desplaza desde ahí hasta su lugar.
+     */
+    private void createRect(int px, int py, int w, int h, String color) {
+        Rectangle r = new Rectangle();
+        r.changeSize(h, w);
+        r.changeColor(color);
+        r.moveHorizontal(px - ORIGIN_X);
+        r.moveVertical(py - ORIGIN_Y);
+        r.makeVisible();
+        shapes.add(r);
+    }
+}